@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+
+import org.moxie.utils.StringUtils;
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.Method;
+import org.restlet.routing.Filter;
+
+/**
+ * Records the artifacts of a proxied repository which are served by the
+ * Maven 2 directory so that they are not evicted as cold artifacts.
+ *
+ * @author James Moger
+ *
+ */
+public class AccessFilter extends Filter {
+
+	private final AccessTracker tracker;
+
+	private final File root;
+
+	public AccessFilter(Context context, Restlet next, AccessTracker tracker, File root) {
+		super(context, next);
+		this.tracker = tracker;
+		this.root = root;
+	}
+
+	@Override
+	protected void afterHandle(Request request, Response response) {
+		if (!response.getStatus().isSuccess() || !Method.GET.equals(request.getMethod())) {
+			return;
+		}
+		String path = request.getResourceRef().getRemainingPart(true, false);
+		if (!StringUtils.isEmpty(path) && !path.endsWith("/")) {
+			tracker.touch(new File(root, path));
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records when the artifact folders of the proxied repositories were last
+ * served. The eviction of cold artifacts is based on these access times.
+ * <p>
+ * Access times are tracked per artifact version folder and recorded with a
+ * granularity of one minute, so serving a request is usually a single map
+ * lookup. The modification date of a folder, which is updated when an
+ * artifact is retrieved into the folder, is used for folders which have not
+ * been served since the access times were last persisted.
+ *
+ * @author James Moger
+ *
+ */
+public class AccessTracker {
+
+	private static final long GRANULARITY = TimeUnit.MINUTES.toMillis(1);
+
+	private final Logger logger = Logger.getLogger(AccessTracker.class.getSimpleName());
+
+	private final File file;
+
+	private final Map<String, Long> accesses;
+
+	private volatile boolean dirty;
+
+	public AccessTracker(File file) {
+		this.file = file;
+		this.accesses = new ConcurrentHashMap<String, Long>();
+	}
+
+	/**
+	 * Records that an artifact was served.
+	 *
+	 * @param artifact
+	 */
+	public void touch(File artifact) {
+		File folder = artifact.getParentFile();
+		if (folder == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		String key = folder.getAbsolutePath();
+		Long last = accesses.get(key);
+		if (last == null || now - last > GRANULARITY) {
+			accesses.put(key, now);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Returns the last time an artifact of the folder was served or
+	 * retrieved.
+	 *
+	 * @param folder
+	 * @return the last access time
+	 */
+	public long getLastAccess(File folder) {
+		Long last = accesses.get(folder.getAbsolutePath());
+		long modified = folder.lastModified();
+		return last == null ? modified : Math.max(last, modified);
+	}
+
+	/**
+	 * Forgets an evicted folder.
+	 *
+	 * @param folder
+	 */
+	public void remove(File folder) {
+		if (accesses.remove(folder.getAbsolutePath()) != null) {
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Loads the persisted access times.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void load() {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				accesses.putAll((Map<String, Long>) is.readObject());
+			} finally {
+				is.close();
+			}
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to load access times from " + file, e);
+		}
+	}
+
+	/**
+	 * Persists the access times, if they have changed.
+	 */
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		dirty = false;
+		HashMap<String, Long> map = new HashMap<String, Long>(accesses);
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				os.writeObject(map);
+			} finally {
+				os.close();
+			}
+			file.delete();
+			tmp.renameTo(file);
+		} catch (IOException e) {
+			dirty = true;
+			logger.log(Level.WARNING, "Failed to save access times to " + file, e);
+		}
+	}
+}
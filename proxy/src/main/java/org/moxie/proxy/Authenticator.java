@@ -15,12 +15,9 @@
  */
 package org.moxie.proxy;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-import org.moxie.utils.StringUtils;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.data.ChallengeScheme;
@@ -29,6 +26,10 @@ import org.restlet.security.SecretVerifier;
 
 public class Authenticator extends ChallengeAuthenticator {
 
+	private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+	private static final int MAX_CACHED_USERS = 1000;
+
 	final Logger logger = Logger.getLogger(getClass().getSimpleName());
 	final MoxieProxy app;
 	
@@ -49,26 +50,23 @@ public class Authenticator extends ChallengeAuthenticator {
     
     private class CredentialsVerifier extends SecretVerifier {
     	
-		int timeout = 60*1000;
-		Map<String, Date> authenticated = new HashMap<String, Date>();
+		final CredentialCache authenticated = new CredentialCache(TIMEOUT, MAX_CACHED_USERS);
 		
 		@Override
 		public int verify(String username, char[] secret) {
-			String password = new String(secret);
-			String hash = StringUtils.getSHA1(username + password);
-			Date date = new Date(0);
-			if (authenticated.containsKey(hash)) {
-				date = authenticated.get(hash);
+			if (username == null || secret == null) {
+				return RESULT_MISSING;
 			}
-			if (timeout >= (System.currentTimeMillis() - date.getTime())) {
+			if (authenticated.isValid(username, secret)) {
 				// user has authenticated recently
 				return RESULT_VALID;
 			}
 			// Authenticate user
-			if (app.authenticate(username, password)) {
-				authenticated.put(hash, new Date());
+			if (app.authenticate(username, new String(secret))) {
+				authenticated.put(username, secret);
 				return RESULT_VALID;
 			}
+			authenticated.remove(username);
 			return RESULT_INVALID;
 		}
 	};
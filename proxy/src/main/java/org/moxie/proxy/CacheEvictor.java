@@ -0,0 +1,216 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.moxie.RemoteRepository;
+import org.moxie.proxy.connection.GzipCache;
+import org.moxie.utils.FileUtils;
+
+/**
+ * Evicts the least recently used artifacts of proxied repositories which
+ * exceed their quota. This is executed periodically by the executor service.
+ * <p>
+ * The unit of eviction is an artifact version folder, i.e. the pom, the
+ * artifacts and the checksums of one version. Evicted folders are removed
+ * from the artifact and class indexes and the size of the repository is
+ * adjusted. The prefixes index is left untouched: it only has to be a
+ * superset of the cached paths because the proxy retrieves an evicted
+ * artifact again on demand.
+ * <p>
+ * Local repositories are never evicted.
+ *
+ * @author James Moger
+ *
+ */
+public class CacheEvictor implements Runnable {
+
+	public static final Logger log = Logger.getLogger(CacheEvictor.class.getSimpleName());
+
+	/**
+	 * Eviction frees space down to this fraction of the quota so that it does
+	 * not have to run for every newly retrieved artifact.
+	 */
+	private static final double LOW_WATERMARK = 0.9;
+
+	/**
+	 * Folders which were served or retrieved recently are not evicted. This
+	 * also protects folders which are being downloaded into.
+	 */
+	private static final long MIN_IDLE = TimeUnit.HOURS.toMillis(1);
+
+	private final ProxyConfig config;
+
+	private final LuceneExecutor lucene;
+
+	private final AccessTracker tracker;
+
+	private final ProxyMetrics metrics;
+
+	public CacheEvictor(ProxyConfig config, LuceneExecutor lucene, AccessTracker tracker, ProxyMetrics metrics) {
+		this.config = config;
+		this.lucene = lucene;
+		this.tracker = tracker;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void run() {
+		for (RemoteRepository repository : config.getRemoteRepositories()) {
+			long quota = config.getRepositoryQuota(repository.id);
+			if (quota <= 0 || !config.isRepositoryMeasured(repository.id)) {
+				// wait for the background measurement of the repository
+				continue;
+			}
+			long size = config.getRepositoryBytes(repository.id);
+			if (size <= quota) {
+				continue;
+			}
+			try {
+				evict(repository.id, size - (long) (quota * LOW_WATERMARK));
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Failed to evict artifacts from " + repository.id, e);
+			}
+		}
+		tracker.save();
+	}
+
+	/**
+	 * Evicts the least recently used folders of a repository until the
+	 * specified number of bytes has been freed.
+	 *
+	 * @param repository
+	 * @param target
+	 *            the number of bytes to free
+	 */
+	void evict(String repository, long target) {
+		File root = config.getMavenCache(repository).getRootFolder();
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		collect(root, System.currentTimeMillis() - MIN_IDLE, candidates);
+		Collections.sort(candidates);
+
+		File gzipRoot = new File(config.getMoxieRoot(), GzipCache.FOLDER);
+		List<String> evicted = new ArrayList<String>();
+		long freed = 0;
+		for (Candidate candidate : candidates) {
+			if (freed >= target) {
+				break;
+			}
+			String path = FileUtils.getRelativePath(root, candidate.folder);
+			long bytes = delete(candidate.folder);
+			freed += bytes;
+			config.adjustRepositorySize(repository, -bytes);
+			tracker.remove(candidate.folder);
+			evicted.add(path);
+
+			// drop the compressed copies of the evicted artifacts
+			String gzipPath = FileUtils.getRelativePath(config.getMoxieRoot(), candidate.folder);
+			if (gzipPath != null) {
+				FileUtils.delete(new File(gzipRoot, gzipPath));
+			}
+			prune(root, candidate.folder.getParentFile());
+		}
+
+		if (!evicted.isEmpty()) {
+			lucene.evict(repository, evicted);
+			metrics.evicted(evicted.size(), freed);
+			log.info(MessageFormat.format("evicted {0} artifacts ({1}) from {2}", evicted.size(),
+					FileUtils.formatSize(freed), repository));
+		}
+	}
+
+	/**
+	 * Collects the idle artifact version folders, i.e. the folders which
+	 * contain a pom.
+	 */
+	private void collect(File folder, long idleSince, List<Candidate> candidates) {
+		File [] files = folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		boolean hasPom = false;
+		for (File file : files) {
+			if (file.isDirectory()) {
+				if (!file.getName().startsWith(".")) {
+					// skip .meta, .index, etc
+					collect(file, idleSince, candidates);
+				}
+			} else if (file.getName().endsWith(org.moxie.Constants.POM)) {
+				hasPom = true;
+			}
+		}
+		if (hasPom) {
+			long lastAccess = tracker.getLastAccess(folder);
+			if (lastAccess < idleSince) {
+				candidates.add(new Candidate(folder, lastAccess));
+			}
+		}
+	}
+
+	/**
+	 * Deletes the files of an artifact folder. Subfolders are left alone.
+	 *
+	 * @return the number of deleted bytes
+	 */
+	private long delete(File folder) {
+		long bytes = 0;
+		File [] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile()) {
+					long length = file.length();
+					if (file.delete()) {
+						bytes += length;
+					}
+				}
+			}
+		}
+		folder.delete();
+		return bytes;
+	}
+
+	/**
+	 * Deletes empty parent folders up to the repository root.
+	 */
+	private void prune(File root, File folder) {
+		while (folder != null && !folder.equals(root) && folder.delete()) {
+			folder = folder.getParentFile();
+		}
+	}
+
+	private static class Candidate implements Comparable<Candidate> {
+		final File folder;
+		final long lastAccess;
+
+		Candidate(File folder, long lastAccess) {
+			this.folder = folder;
+			this.lastAccess = lastAccess;
+		}
+
+		@Override
+		public int compareTo(Candidate o) {
+			return lastAccess < o.lastAccess ? -1 : (lastAccess == o.lastAccess ? 0 : 1);
+		}
+	}
+}
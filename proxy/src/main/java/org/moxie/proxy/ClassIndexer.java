@@ -0,0 +1,563 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.FSDirectory;
+import org.moxie.IMavenCache;
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+
+/**
+ * Indexes the fully-qualified class names of cached jars so that the proxy
+ * can answer which artifact contains a class. Only the central directory of
+ * a jar is read.
+ * <p>
+ * Each repository has a class index with one document per jar. Jars are
+ * indexed by a small pool of low priority worker threads. Jars retrieved by
+ * request threads are queued without blocking and are dropped if the queue
+ * is full. Repositories are scanned by a background thread which blocks until
+ * the workers catch up, so a scan never delays the startup of the proxy. A
+ * jar whose last modified date matches its indexed date is not indexed again.
+ *
+ * @author James Moger
+ *
+ */
+public class ClassIndexer {
+
+	public static final Logger log = Logger.getLogger(ClassIndexer.class.getSimpleName());
+
+	private static final String FIELD_ID = "id";
+	private static final String FIELD_GROUPID = "groupid";
+	private static final String FIELD_ARTIFACTID = "artifactid";
+	private static final String FIELD_VERSION = "version";
+	private static final String FIELD_CLASSIFIER = "classifier";
+	private static final String FIELD_DATE = "date";
+	private static final String FIELD_CLASS = "class";
+	private static final String FIELD_SIMPLENAME = "simplename";
+
+	private static final int THREADS = 2;
+
+	private static final int MAX_QUEUED = 10000;
+
+	private static final Pattern ANONYMOUS_CLASS = Pattern.compile(".*\\$\\d.*");
+
+	private final ProxyConfig config;
+	private final ProxyMetrics metrics;
+	private final File indexesFolder;
+	private final ThreadPoolExecutor executor;
+	private final ExecutorService scanner;
+
+	private final Map<String, SearcherManager> searchers = new ConcurrentHashMap<String, SearcherManager>();
+	private final Map<String, IndexWriter> writers = new ConcurrentHashMap<String, IndexWriter>();
+
+	public ClassIndexer(ProxyConfig config, ProxyMetrics metrics, File indexesFolder) {
+		this.config = config;
+		this.metrics = metrics;
+		this.indexesFolder = indexesFolder;
+		this.executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+					final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "classindex-" + count.incrementAndGet());
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				}, new ThreadPoolExecutor.DiscardPolicy());
+		// scans put directly into the queue
+		this.executor.prestartAllCoreThreads();
+		this.scanner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "classindex-scan");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Returns true if the file is a jar with classes. Source and javadoc jars
+	 * are not indexed.
+	 *
+	 * @param file
+	 * @return true if the file should be indexed
+	 */
+	public static boolean isIndexable(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".jar") && !name.endsWith("-sources.jar") && !name.endsWith("-javadoc.jar");
+	}
+
+	/**
+	 * Queues a jar for indexing without blocking the caller. The jar is
+	 * dropped if the queue is full.
+	 *
+	 * @param repository
+	 * @param jar
+	 */
+	public void index(String repository, File jar) {
+		executor.execute(new IndexJar(repository, jar));
+	}
+
+	/**
+	 * Queues a background scan of a repository. The scan walks the repository
+	 * and queues its jars for indexing, blocking until there is room in the
+	 * queue. Scans are executed one at a time.
+	 *
+	 * @param repository
+	 */
+	public void scan(String repository) {
+		try {
+			scanner.execute(new ScanRepository(repository));
+		} catch (RejectedExecutionException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Returns the number of jars waiting to be indexed.
+	 *
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Reads the class names of a jar and replaces its document in the class
+	 * index of the repository.
+	 *
+	 * @param repository
+	 * @param jar
+	 * @throws IOException
+	 */
+	void indexJar(String repository, File jar) throws IOException {
+		if (!jar.exists()) {
+			return;
+		}
+		IMavenCache cache = config.getMavenCache(repository);
+		String id = FileUtils.getRelativePath(cache.getRootFolder(), jar);
+		if (id == null) {
+			return;
+		}
+		String [] segments = id.split("/");
+		if (segments.length < 4) {
+			// not a maven repository path
+			return;
+		}
+		long date = jar.lastModified();
+		if (isCurrent(repository, id, date)) {
+			return;
+		}
+
+		// the zip file reads the central directory, entries are not inflated
+		Set<String> classes = new TreeSet<String>();
+		ZipFile zip = new ZipFile(jar);
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				String name = entries.nextElement().getName();
+				if (!name.endsWith(".class") || name.startsWith("META-INF/")) {
+					continue;
+				}
+				String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+				if (className.endsWith("package-info") || className.endsWith("module-info")
+						|| ANONYMOUS_CLASS.matcher(className).matches()) {
+					continue;
+				}
+				classes.add(className);
+			}
+		} finally {
+			zip.close();
+		}
+
+		String version = segments[segments.length - 2];
+		String artifactId = segments[segments.length - 3];
+		String groupId = StringUtils.flattenStrings(Arrays.asList(segments).subList(0, segments.length - 3), ".");
+		String classifier = "";
+		String baseName = artifactId + "-" + version;
+		String fileName = jar.getName().substring(0, jar.getName().length() - ".jar".length());
+		if (fileName.startsWith(baseName + "-")) {
+			classifier = fileName.substring(baseName.length() + 1);
+		}
+
+		Document doc = new Document();
+		doc.add(new StringField(FIELD_ID, id, Store.YES));
+		doc.add(new StringField(FIELD_GROUPID, groupId, Store.YES));
+		doc.add(new StringField(FIELD_ARTIFACTID, artifactId, Store.YES));
+		doc.add(new StringField(FIELD_VERSION, version, Store.YES));
+		doc.add(new StringField(FIELD_CLASSIFIER, classifier, Store.YES));
+		doc.add(new NumericDocValuesField(FIELD_DATE, date));
+		doc.add(new StoredField(FIELD_DATE, date));
+		Set<String> simpleNames = new TreeSet<String>();
+		for (String className : classes) {
+			doc.add(new StringField(FIELD_CLASS, className, Store.NO));
+			String simpleName = className.substring(className.lastIndexOf('.') + 1).toLowerCase();
+			simpleNames.add(simpleName);
+			if (simpleName.indexOf('$') > -1) {
+				// nested classes are also found by their own name
+				simpleNames.add(simpleName.substring(simpleName.lastIndexOf('$') + 1));
+			}
+		}
+		for (String simpleName : simpleNames) {
+			doc.add(new StringField(FIELD_SIMPLENAME, simpleName, Store.NO));
+		}
+		getIndexWriter(repository).updateDocument(new Term(FIELD_ID, id), doc);
+		log.fine(MessageFormat.format("indexed {0} classes of {1}", classes.size(), jar));
+	}
+
+	/**
+	 * Returns true if the jar is indexed with the specified date.
+	 */
+	private boolean isCurrent(String repository, String id, long date) throws IOException {
+		SearcherManager manager = getSearcherManager(repository);
+		IndexSearcher searcher = manager.acquire();
+		try {
+			TopDocs topDocs = searcher.search(new TermQuery(new Term(FIELD_ID, id)), 1);
+			if (topDocs.scoreDocs.length == 0) {
+				return false;
+			}
+			Document doc = searcher.doc(topDocs.scoreDocs[0].doc);
+			return doc.getField(FIELD_DATE).numericValue().longValue() == date;
+		} finally {
+			manager.release(searcher);
+		}
+	}
+
+	/**
+	 * Searches the class indexes of the repositories for a class name. A
+	 * name with a package is matched as a fully-qualified class name, a name
+	 * without a package is matched case-insensitively as a simple class name.
+	 * A trailing wildcard matches all names with that prefix, e.g. a package.
+	 *
+	 * @param text
+	 * @param page
+	 *            the page number to retrieve. page is 1-indexed.
+	 * @param pageSize
+	 *            the number of elements to return for this page
+	 * @param repositories
+	 * @return a list of jars, newest first
+	 */
+	public List<SearchResult> search(String text, int page, int pageSize, List<String> repositories) {
+		List<SearchResult> results = new ArrayList<SearchResult>();
+		Query query = createQuery(text);
+		if (query == null || repositories == null || repositories.isEmpty()) {
+			return results;
+		}
+		int offset = Math.max(0, (page - 1) * pageSize);
+		int limit = offset + pageSize;
+		Sort sort = new Sort(new SortField(FIELD_DATE, SortField.Type.LONG, true));
+		SearcherManager [] managers = new SearcherManager[repositories.size()];
+		IndexSearcher [] acquired = new IndexSearcher[repositories.size()];
+		try {
+			// collect the top hits of each repository and merge them
+			TopFieldDocs [] hits = new TopFieldDocs[repositories.size()];
+			for (int i = 0; i < hits.length; i++) {
+				managers[i] = getSearcherManager(repositories.get(i));
+				acquired[i] = managers[i].acquire();
+				hits[i] = acquired[i].search(query, limit, sort);
+				for (ScoreDoc hit : hits[i].scoreDocs) {
+					hit.shardIndex = i;
+				}
+			}
+			TopFieldDocs merged = TopDocs.merge(sort, limit, hits);
+			int totalHits = (int) merged.totalHits.value;
+			for (int i = offset; i < merged.scoreDocs.length; i++) {
+				ScoreDoc hit = merged.scoreDocs[i];
+				Document doc = acquired[hit.shardIndex].doc(hit.doc);
+				SearchResult result = new SearchResult();
+				result.hitId = i + 1;
+				result.totalHits = totalHits;
+				result.date = new Date(doc.getField(FIELD_DATE).numericValue().longValue());
+				result.groupId = doc.get(FIELD_GROUPID);
+				result.artifactId = doc.get(FIELD_ARTIFACTID);
+				result.version = doc.get(FIELD_VERSION);
+				result.packaging = "jar";
+				String classifier = doc.get(FIELD_CLASSIFIER);
+				result.name = StringUtils.isEmpty(classifier) ? null : classifier;
+				result.repository = repositories.get(hit.shardIndex);
+				results.add(result);
+			}
+		} catch (Exception e) {
+			log.log(Level.SEVERE, MessageFormat.format("Exception while searching for class {0}", text), e);
+		} finally {
+			for (int i = 0; i < acquired.length; i++) {
+				if (acquired[i] != null) {
+					try {
+						managers[i].release(acquired[i]);
+					} catch (IOException e) {
+						log.log(Level.SEVERE, "Failed to release class searcher for " + repositories.get(i), e);
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	private Query createQuery(String text) {
+		if (StringUtils.isEmpty(text)) {
+			return null;
+		}
+		String name = text.trim().replace('/', '.');
+		if (name.endsWith(".class")) {
+			name = name.substring(0, name.length() - ".class".length());
+		}
+		boolean prefix = name.endsWith("*");
+		if (prefix) {
+			name = name.substring(0, name.length() - 1);
+		}
+		if (name.length() == 0 || name.indexOf('*') > -1) {
+			// unsupported wildcard query
+			return null;
+		}
+		Term term;
+		if (name.indexOf('.') > -1) {
+			term = new Term(FIELD_CLASS, name);
+		} else {
+			term = new Term(FIELD_SIMPLENAME, name.toLowerCase());
+		}
+		return prefix ? new PrefixQuery(term) : new TermQuery(term);
+	}
+
+	/**
+	 * Commits the indexed jars and refreshes the searchers. This is executed
+	 * periodically by the Lucene executor.
+	 */
+	public void refresh() {
+		for (Map.Entry<String, IndexWriter> entry : writers.entrySet()) {
+			try {
+				IndexWriter writer = entry.getValue();
+				if (writer.hasUncommittedChanges()) {
+					long start = System.nanoTime();
+					writer.commit();
+					metrics.indexCommitted(ProxyMetrics.CLASSES, System.nanoTime() - start);
+				}
+				SearcherManager manager = searchers.get(entry.getKey());
+				if (manager != null) {
+					manager.maybeRefresh();
+				}
+			} catch (AlreadyClosedException e) {
+				// index was closed or deleted concurrently
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Failed to refresh class index for " + entry.getKey(), e);
+			}
+		}
+	}
+
+	private synchronized SearcherManager getSearcherManager(String repository) throws IOException {
+		SearcherManager searcher = searchers.get(repository);
+		if (searcher == null) {
+			searcher = new SearcherManager(getIndexWriter(repository), null);
+			searchers.put(repository, searcher);
+		}
+		return searcher;
+	}
+
+	private synchronized IndexWriter getIndexWriter(String repository) throws IOException {
+		IndexWriter writer = writers.get(repository);
+		if (writer == null) {
+			File folder = new File(indexesFolder, repository);
+			folder.mkdirs();
+			IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+			config.setOpenMode(OpenMode.CREATE_OR_APPEND);
+			writer = new IndexWriter(FSDirectory.open(folder.toPath()), config);
+			writers.put(repository, writer);
+		}
+		return writer;
+	}
+
+	/**
+	 * Removes the jars of evicted artifact folders from the class index. The
+	 * deletions are committed by the next refresh.
+	 *
+	 * @param repository
+	 * @param paths
+	 *            the relative paths of the evicted folders
+	 */
+	public void delete(String repository, Collection<String> paths) {
+		try {
+			IndexWriter writer = getIndexWriter(repository);
+			for (String path : paths) {
+				writer.deleteDocuments(new PrefixQuery(new Term(FIELD_ID, path + "/")));
+			}
+		} catch (AlreadyClosedException e) {
+			// index was closed or deleted concurrently
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Failed to delete evicted jars from class index " + repository, e);
+		}
+	}
+
+	/**
+	 * Deletes the class index of a repository.
+	 *
+	 * @param repository
+	 */
+	public synchronized void deleteIndex(String repository) {
+		close(repository);
+		File folder = new File(indexesFolder, repository);
+		if (folder.exists()) {
+			FileUtils.delete(folder);
+		}
+	}
+
+	private synchronized void close(String repository) {
+		try {
+			SearcherManager searcher = searchers.remove(repository);
+			if (searcher != null) {
+				searcher.close();
+			}
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Failed to close class searcher for " + repository, e);
+		}
+		try {
+			IndexWriter writer = writers.remove(repository);
+			if (writer != null) {
+				writer.close();
+			}
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Failed to close class index writer for " + repository, e);
+		}
+	}
+
+	/**
+	 * Stops the workers and closes all class indexes.
+	 */
+	public synchronized void close() {
+		scanner.shutdownNow();
+		executor.shutdownNow();
+		for (String repository : new ArrayList<String>(writers.keySet())) {
+			close(repository);
+		}
+	}
+
+	/**
+	 * Walks a repository and queues its jars for indexing.
+	 */
+	private class ScanRepository implements Runnable {
+		final String repository;
+
+		ScanRepository(String repository) {
+			this.repository = repository;
+		}
+
+		@Override
+		public void run() {
+			IMavenCache cache = config.getMavenCache(repository);
+			if (cache == null) {
+				return;
+			}
+			long start = System.currentTimeMillis();
+			int count = 0;
+			LinkedList<File> folders = new LinkedList<File>();
+			folders.add(cache.getRootFolder());
+			try {
+				File folder;
+				while ((folder = folders.poll()) != null) {
+					File [] files = folder.listFiles();
+					if (files == null) {
+						continue;
+					}
+					for (File file : files) {
+						if (file.isDirectory()) {
+							folders.add(file);
+						} else if (isIndexable(file)) {
+							executor.getQueue().put(new IndexJar(repository, file));
+							count++;
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				// closed
+				return;
+			}
+			log.fine(MessageFormat.format("queued {0} jars of {1} for the class index in {2} msecs", count,
+					repository, System.currentTimeMillis() - start));
+		}
+	}
+
+	private class IndexJar implements Runnable {
+		final String repository;
+		final File jar;
+
+		IndexJar(String repository, File jar) {
+			this.repository = repository;
+			this.jar = jar;
+		}
+
+		@Override
+		public void run() {
+			try {
+				indexJar(repository, jar);
+			} catch (AlreadyClosedException e) {
+				// index was closed or deleted concurrently
+			} catch (Exception e) {
+				log.log(Level.WARNING, "Failed to index classes of " + jar, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.pattern.PatternTokenizer;
+import org.apache.lucene.analysis.reverse.ReverseStringFilter;
+
+/**
+ * Analyzes groupIds and artifactIds for prefix and suffix matching. The
+ * coordinate is split into lower-case tokens on separators like '.' and '-'.
+ * In prefix mode each token is indexed with all of its leading edge ngrams so
+ * that a prefix query becomes a single term lookup. In reverse mode each
+ * token is indexed reversed so that a suffix query becomes a prefix query.
+ *
+ * @author James Moger
+ *
+ */
+public class CoordinateAnalyzer extends Analyzer {
+
+	public static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	public static final int MIN_GRAM = 1;
+
+	public static final int MAX_GRAM = 20;
+
+	public static enum Mode {
+		PREFIX, REVERSE;
+	}
+
+	private final Mode mode;
+
+	public CoordinateAnalyzer(Mode mode) {
+		this.mode = mode;
+	}
+
+	@Override
+	protected TokenStreamComponents createComponents(String fieldName) {
+		Tokenizer source = new PatternTokenizer(SEPARATORS, -1);
+		TokenStream result = new LowerCaseFilter(source);
+		switch (mode) {
+		case PREFIX:
+			result = new EdgeNGramTokenFilter(result, MIN_GRAM, MAX_GRAM, true);
+			break;
+		case REVERSE:
+			result = new ReverseStringFilter(result);
+			break;
+		}
+		return new TokenStreamComponents(source, result);
+	}
+
+	/**
+	 * Splits query text into tokens the same way coordinates are split at
+	 * index time.
+	 *
+	 * @param text
+	 * @return the lower-case tokens
+	 */
+	public static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<String>();
+		for (String token : SEPARATORS.split(text.toLowerCase(Locale.ENGLISH))) {
+			if (token.length() > 0) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Returns the indexed edge ngram which matches all tokens that start with
+	 * the specified prefix.
+	 *
+	 * @param prefix
+	 * @return the prefix term
+	 */
+	public static String prefixTerm(String prefix) {
+		return prefix.length() > MAX_GRAM ? prefix.substring(0, MAX_GRAM) : prefix;
+	}
+
+	/**
+	 * Returns the reversed token prefix which matches all tokens that end with
+	 * the specified suffix.
+	 *
+	 * @param suffix
+	 * @return the reversed suffix
+	 */
+	public static String suffixTerm(String suffix) {
+		return new StringBuilder(suffix).reverse().toString();
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent, size-bounded cache of recently verified credentials.
+ * <p>
+ * Passwords are not retained. Each user maps to a salted SHA-256 digest of
+ * the verified password and an expiration time, and digests are compared in
+ * constant time. Expired entries are dropped when they are looked up and
+ * when the cache is full.
+ *
+ * @author James Moger
+ *
+ */
+public class CredentialCache {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final Map<String, Entry> entries;
+
+	private final long timeout;
+
+	private final int capacity;
+
+	private final byte[] salt;
+
+	/**
+	 * @param timeout
+	 *            the time in milliseconds a verified credential is trusted
+	 * @param capacity
+	 *            the maximum number of cached users
+	 */
+	public CredentialCache(long timeout, int capacity) {
+		this.timeout = timeout;
+		this.capacity = capacity;
+		this.entries = new ConcurrentHashMap<String, Entry>();
+		this.salt = new byte[16];
+		new SecureRandom().nextBytes(salt);
+	}
+
+	/**
+	 * Returns true if the credentials were verified within the timeout.
+	 *
+	 * @param username
+	 * @param secret
+	 * @return true if the credentials are cached and have not expired
+	 */
+	public boolean isValid(String username, char[] secret) {
+		Entry entry = entries.get(username);
+		if (entry == null) {
+			return false;
+		}
+		if (entry.isExpired(System.currentTimeMillis())) {
+			entries.remove(username, entry);
+			return false;
+		}
+		return MessageDigest.isEqual(entry.digest, digest(secret));
+	}
+
+	/**
+	 * Caches verified credentials.
+	 *
+	 * @param username
+	 * @param secret
+	 */
+	public void put(String username, char[] secret) {
+		long now = System.currentTimeMillis();
+		if (entries.size() >= capacity && !entries.containsKey(username)) {
+			evict(now);
+		}
+		entries.put(username, new Entry(digest(secret), now + timeout));
+	}
+
+	/**
+	 * Forgets the credentials of a user.
+	 *
+	 * @param username
+	 */
+	public void remove(String username) {
+		entries.remove(username);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes the expired entries. If the cache is still full, the entry
+	 * closest to expiration is removed.
+	 */
+	private void evict(long now) {
+		String eldest = null;
+		long expires = Long.MAX_VALUE;
+		Iterator<Map.Entry<String, Entry>> itr = entries.entrySet().iterator();
+		while (itr.hasNext()) {
+			Map.Entry<String, Entry> entry = itr.next();
+			if (entry.getValue().isExpired(now)) {
+				itr.remove();
+			} else if (entry.getValue().expires < expires) {
+				eldest = entry.getKey();
+				expires = entry.getValue().expires;
+			}
+		}
+		if (entries.size() >= capacity && eldest != null) {
+			entries.remove(eldest);
+		}
+	}
+
+	private byte[] digest(char[] secret) {
+		ByteBuffer bytes = UTF_8.encode(CharBuffer.wrap(secret));
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(salt);
+			md.update(bytes);
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (bytes.hasArray()) {
+				Arrays.fill(bytes.array(), (byte) 0);
+			}
+		}
+	}
+
+	private static class Entry {
+		final byte[] digest;
+		final long expires;
+
+		Entry(byte[] digest, long expires) {
+			this.digest = digest;
+			this.expires = expires;
+		}
+
+		boolean isExpired(long now) {
+			return now >= expires;
+		}
+	}
+}
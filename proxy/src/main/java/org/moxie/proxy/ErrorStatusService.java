@@ -18,13 +18,11 @@ package org.moxie.proxy;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.restlet.Context;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.data.CharacterSet;
 import org.restlet.data.MediaType;
 import org.restlet.data.Status;
-import org.restlet.ext.freemarker.ContextTemplateLoader;
 import org.restlet.ext.freemarker.TemplateRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.service.StatusService;
@@ -33,15 +31,19 @@ import freemarker.template.Configuration;
 
 public class ErrorStatusService extends StatusService {
 	
-	final Configuration configuration;
+	final MoxieProxy app;
 	
-	public ErrorStatusService(Context context) {
-		this.configuration = new Configuration();
-		this.configuration.setTemplateLoader(new ContextTemplateLoader(context, "clap://class/templates"));
+	public ErrorStatusService(MoxieProxy app) {
+		this.app = app;
 	}
 
 	@Override
 	public Representation getRepresentation(Status status, Request request, Response response) {
+		Configuration configuration = app.getFreemarkerConfiguration();
+		if (configuration == null) {
+			// not started yet
+			return super.getRepresentation(status, request, response);
+		}
 		Map<String, Object> map = new HashMap<String, Object>();
 		map.put("title", Constants.getName());
 		map.put("reason", status.getReasonPhrase());
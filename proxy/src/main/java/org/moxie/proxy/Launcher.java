@@ -121,8 +121,9 @@ public class Launcher {
 	/**
 	 * Start Moxie Proxy
 	 * @param config
+	 * @return the started component
 	 */
-	static void start(ProxyConfig config) throws Exception {
+	public static Component start(ProxyConfig config) throws Exception {
 		Engine.setRestletLogLevel(Level.INFO);
 
 		Component c = new Component();
@@ -167,14 +168,14 @@ public class Launcher {
 		// add client file protocol to enable serving artifacts from filesystem
 		c.getClients().add(Protocol.FILE);
 
-		// override the default error pages
-		c.setStatusService(new ErrorStatusService(c.getContext()));
+		MoxieProxy app = new MoxieProxy(config);
+
+		// override the default error pages, rendered with the app's templates
+		c.setStatusService(new ErrorStatusService(app));
 
 		// get the default virtual host
 		VirtualHost host = c.getDefaultHost();		
 
-		MoxieProxy app = new MoxieProxy(config);
-
 		// Guard Moxie Proxy with BASIC authentication.
 		Authenticator guard = new Authenticator(app);
 		host.attachDefault(guard);
@@ -188,6 +189,7 @@ public class Launcher {
 
 		// start the Restlet http/https server
 		c.start();
+		return c;
 	}
 	
 	/**
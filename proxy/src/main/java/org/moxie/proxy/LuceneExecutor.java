@@ -17,56 +17,93 @@ package org.moxie.proxy;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.text.MessageFormat;
-import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Queue;
+import java.util.regex.Pattern;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.TreeMap;
+import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.DateTools;
-import org.apache.lucene.document.DateTools.Resolution;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.Field.Index;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.MultiTerms;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.Version;
+import org.apache.lucene.util.BytesRef;
+import org.moxie.Dependency;
 import org.moxie.IMavenCache;
-import org.moxie.MoxieCache;
+import org.moxie.MoxieException.MissingParentPomException;
 import org.moxie.Pom;
 import org.moxie.PomReader;
+import org.moxie.PomReader.Requirements;
 import org.moxie.RemoteRepository;
+import org.moxie.proxy.CoordinateAnalyzer.Mode;
 import org.moxie.utils.FileUtils;
 import org.moxie.utils.StringUtils;
 
@@ -78,8 +115,9 @@ import org.moxie.utils.StringUtils;
  */
 public class LuceneExecutor implements Runnable {
 
-	private static final int INDEX_VERSION = 1;
+	private static final int INDEX_VERSION = 4;
 
+	private static final String FIELD_ID = "id";
 	private static final String FIELD_PACKAGING = "type";
 	private static final String FIELD_GROUPID = "groupid";
 	private static final String FIELD_ARTIFACTID = "artifactid";
@@ -88,25 +126,124 @@ public class LuceneExecutor implements Runnable {
 	private static final String FIELD_DESCRIPTION = "description";
 	private static final String FIELD_DATE = "date";
 
+	// coordinate fields for exact, prefix and suffix matching
+	private static final String FIELD_GROUPID_EXACT = "groupid_exact";
+	private static final String FIELD_ARTIFACTID_EXACT = "artifactid_exact";
+	private static final String FIELD_VERSION_EXACT = "version_exact";
+	private static final String FIELD_GROUPID_PREFIX = "groupid_prefix";
+	private static final String FIELD_ARTIFACTID_PREFIX = "artifactid_prefix";
+	private static final String FIELD_GROUPID_SUFFIX = "groupid_suffix";
+	private static final String FIELD_ARTIFACTID_SUFFIX = "artifactid_suffix";
+
+	private static final Set<String> FIELDS = new TreeSet<String>(Arrays.asList(FIELD_ID, FIELD_PACKAGING,
+			FIELD_GROUPID, FIELD_ARTIFACTID, FIELD_VERSION, FIELD_NAME, FIELD_DESCRIPTION, FIELD_DATE,
+			FIELD_GROUPID_EXACT, FIELD_ARTIFACTID_EXACT, FIELD_VERSION_EXACT, FIELD_GROUPID_PREFIX,
+			FIELD_ARTIFACTID_PREFIX, FIELD_GROUPID_SUFFIX, FIELD_ARTIFACTID_SUFFIX));
+
+	private static final Set<String> SUGGEST_FIELDS = new TreeSet<String>(Arrays.asList(FIELD_GROUPID,
+			FIELD_ARTIFACTID, FIELD_VERSION));
+
+	private static final Pattern SIMPLE_QUERY = Pattern.compile("[\\p{L}\\p{N}.\\-_*\\s]+");
+
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private static final int MAX_SUGGEST_HITS = 500;
+
 	private static final String LUCENE_DIR = "lucene";
+	private static final String CLASSES_DIR = "classindex";
+	private static final String CONF_FILE = "config.properties";
 	private static final String CONF_VERSION = "version";
+	private static final String CONF_LAST_MODIFIED = "lastModified";
 
-	private static final Version LUCENE_VERSION = Version.LUCENE_35;
+	/**
+	 * Maximum time to wait for the parent of a queued pom to be retrieved.
+	 */
+	private static final long PARENT_WAIT = TimeUnit.MINUTES.toMillis(2);
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	private static final int REINDEX_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private static final int PROGRESS_INTERVAL = 10000;
+
+	private static final double RAM_BUFFER_MB = 64;
+
+	private static final int RECENT_CAPACITY = 500;
+
+	private static final int SEARCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
 
 	private final Logger logger = Logger.getLogger(LuceneExecutor.class.getSimpleName());
 
 	private final ProxyConfig config;
+	private final ProxyMetrics metrics;
 	private final File indexesFolder;
 
-	private final Map<String, IndexSearcher> searchers = new ConcurrentHashMap<String, IndexSearcher>();
+	private final Map<String, SearcherManager> searchers = new ConcurrentHashMap<String, SearcherManager>();
 	private final Map<String, IndexWriter> writers = new ConcurrentHashMap<String, IndexWriter>();
 
 	private final Queue<IndexPom> queue;
 
-	public LuceneExecutor(ProxyConfig config) {
+	private final DelayQueue<IndexPom> parked;
+
+	private final Map<String, List<IndexPom>> waiting;
+
+	private final RecentArtifacts recent;
+
+	private final ClassIndexer classes;
+
+	private final PrefixIndex prefixes;
+
+	/**
+	 * Federated searchers keyed by their comma-separated repository names.
+	 */
+	private final Map<String, FederatedSearcher> federations = new ConcurrentHashMap<String, FederatedSearcher>();
+
+	private final ExecutorService searchExecutor;
+
+	private final SearcherFactory searcherFactory;
+
+	public LuceneExecutor(ProxyConfig config, ProxyMetrics metrics) {
 		this.config = config;
+		this.metrics = metrics;
 		this.indexesFolder = new File(config.getMoxieRoot(), LUCENE_DIR);
 		queue = new ConcurrentLinkedQueue<IndexPom>();
+		parked = new DelayQueue<IndexPom>();
+		waiting = new HashMap<String, List<IndexPom>>();
+		recent = new RecentArtifacts(new File(indexesFolder, "recent.dat"), RECENT_CAPACITY);
+		recent.load();
+		classes = new ClassIndexer(config, metrics, new File(config.getMoxieRoot(), CLASSES_DIR));
+		prefixes = new PrefixIndex(config);
+
+		metrics.registerIndexQueue(ProxyMetrics.ARTIFACTS, new ProxyMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return queue.size() + parked.size();
+			}
+		});
+		metrics.registerIndexQueue(ProxyMetrics.CLASSES, new ProxyMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return classes.getQueueDepth();
+			}
+		});
+
+		// index segments are searched concurrently
+		searchExecutor = Executors.newFixedThreadPool(SEARCH_THREADS, new ThreadFactory() {
+			final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "search-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		searcherFactory = new SearcherFactory() {
+			@Override
+			public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+				return new IndexSearcher(reader, searchExecutor);
+			}
+		};
 	}
 
 	/**
@@ -120,53 +257,148 @@ public class LuceneExecutor implements Runnable {
 		for (RemoteRepository repository : config.getRemoteRepositories()) {
 			index(repository.id);
 		}
-		System.gc();
 	}
 
 	/**
-	 * Run is executed by a scheduled executor service at a fixed rate. This
+	 * Run is executed by a scheduled executor service at a fixed delay. This
 	 * guarantees no concurrent repository index updates.  Index updates are
 	 * queued and processed asynchronously by the executor service.
+	 * <p>
+	 * A pom can only be completely parsed once its parent poms have been
+	 * retrieved. Poms whose parents are present are indexed immediately.
+	 * Poms whose parent is missing are parked until the parent is indexed or
+	 * until they expire, in which case they are indexed without their parent.
 	 */
 	@Override
 	public void run() {
-		if (queue.isEmpty()) {
+		if (queue.isEmpty() && parked.peek() == null) {
 			return;
 		}
 		
-		Set<String> repositories = new TreeSet<String>();
-		long minDiff = 60*1000L; // 1 min
-		while(!queue.isEmpty()) {
-			IndexPom pom = queue.peek();
-			// Wait till oldest element has been in queue for minimum time.
-			// 
-			// This is a practical workaround for expecting parent pom files
-			// to have been retrieved.  The alternative is to make the proxy
-			// smart enough to identify and retrieve parent poms.  The current
-			// design relies on the client instructing the proxy to retrieve
-			// parent poms.
-			while ((System.currentTimeMillis() - pom.date.getTime()) < minDiff) {
-				try {
-					Thread.sleep(200);
-				} catch (InterruptedException e) {
-					// ignore
+		// group the poms by repository so that each repository index is
+		// updated in a single batch with a single commit
+		Map<String, Map<File, Pom>> batches = new TreeMap<String, Map<File, Pom>>();
+
+		// index the parked poms whose parent did not arrive in time
+		IndexPom pom;
+		while ((pom = parked.poll()) != null) {
+			unpark(pom);
+			String repository = pom.repository;
+			IMavenCache cache = config.getMavenCache(repository);
+			try {
+				logger.fine(MessageFormat.format("indexing {0} without its parent {1}", pom.file, pom.parent));
+				batch(batches, repository).put(pom.file, PomReader.readPom(cache, pom.file, Requirements.LOOSE));
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Exception while reading " + pom.file, e);
+			}
+		}
+
+		Queue<IndexPom> ready = new LinkedList<IndexPom>();
+		while ((pom = queue.poll()) != null) {
+			ready.add(pom);
+		}
+		while ((pom = ready.poll()) != null) {
+			String repository = pom.repository;
+			IMavenCache cache = config.getMavenCache(repository);
+			try {
+				batch(batches, repository).put(pom.file, PomReader.readPom(cache, pom.file));
+
+				// release the poms which were waiting for this parent
+				List<IndexPom> children = waiting.remove(pom.file.getAbsolutePath());
+				if (children != null) {
+					for (IndexPom child : children) {
+						parked.remove(child);
+						ready.add(child);
+					}
+				}
+			} catch (MissingParentPomException e) {
+				File parent = cache.getArtifact(e.getParent(), org.moxie.Constants.POM);
+				if (parent.exists() && pom.attempts++ < MAX_ATTEMPTS) {
+					// parent arrived while we were parsing
+					ready.add(pom);
+				} else {
+					park(pom, parent);
 				}
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Exception while reading " + pom.file, e);
 			}
-			
-			queue.poll();
-			logger.info("indexing " + pom.file);
-			incrementalIndex(pom.file);
-			
-			// cache the repository that we just indexed
-			String repository = config.getRepositoryId(pom.file);
-			repositories.add(repository);
 		}
 		
-		// create/update the prefix indexes for the repositories
-		for (String repository : repositories) {
-			IMavenCache cache = config.getMavenCache(repository);
-			cache.updatePrefixesIndex();
+		for (Map.Entry<String, Map<File, Pom>> entry : batches.entrySet()) {
+			String repository = entry.getKey();
+			incrementalIndex(repository, entry.getValue());
+		}
+
+		// write the prefix indexes which have new prefixes
+		prefixes.flush();
+		recent.save();
+	}
+
+	private Map<File, Pom> batch(Map<String, Map<File, Pom>> batches, String repository) {
+		Map<File, Pom> batch = batches.get(repository);
+		if (batch == null) {
+			batch = new LinkedHashMap<File, Pom>();
+			batches.put(repository, batch);
 		}
+		return batch;
+	}
+
+	/**
+	 * Parks a pom until its parent pom is indexed or until the parent wait
+	 * time expires.
+	 * 
+	 * @param pom
+	 * @param parent
+	 *            the missing parent pom
+	 */
+	private void park(IndexPom pom, File parent) {
+		String key = parent.getAbsolutePath();
+		List<IndexPom> children = waiting.get(key);
+		if (children == null) {
+			children = new ArrayList<IndexPom>();
+			waiting.put(key, children);
+		}
+		pom.parent = key;
+		pom.expires = System.currentTimeMillis() + PARENT_WAIT;
+		children.add(pom);
+		parked.add(pom);
+		logger.fine(MessageFormat.format("parked {0} until {1} is retrieved", pom.file, key));
+	}
+
+	private void unpark(IndexPom pom) {
+		List<IndexPom> children = waiting.get(pom.parent);
+		if (children != null) {
+			children.remove(pom);
+			if (children.isEmpty()) {
+				waiting.remove(pom.parent);
+			}
+		}
+	}
+
+	/**
+	 * Refreshes the near-real-time searchers so that recently indexed poms
+	 * become visible to searches. This is executed by a scheduled executor
+	 * service at a fixed rate and is cheap if an index has not changed.
+	 */
+	public void refresh() {
+		for (Map.Entry<String, SearcherManager> entry : searchers.entrySet()) {
+			try {
+				entry.getValue().maybeRefresh();
+			} catch (AlreadyClosedException e) {
+				// index was closed or rebuilt concurrently
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Failed to refresh Lucene searcher for " + entry.getKey(), e);
+			}
+		}
+
+		// release the readers of outdated federated searchers
+		for (Map.Entry<String, FederatedSearcher> entry : federations.entrySet()) {
+			FederatedSearcher federated = entry.getValue();
+			if (!federated.isCurrent() && federations.remove(entry.getKey(), federated)) {
+				federated.decRef();
+			}
+		}
+		classes.refresh();
 	}
 
 	/**
@@ -179,10 +411,7 @@ public class LuceneExecutor implements Runnable {
 	 */
 	private boolean shouldReindex(String repository) {
 		try {
-			File folder = new File(indexesFolder, LUCENE_DIR);
-			File file = new File(folder, "config.properties");
-			Properties props = new Properties();
-			props.load(new FileReader(file));
+			Properties props = readIndexConfig(repository);
 			int indexVersion = Integer.parseInt(props.getProperty(CONF_VERSION, "0"));
 			// reindex if versions do not match
 			return indexVersion != INDEX_VERSION;
@@ -191,6 +420,57 @@ public class LuceneExecutor implements Runnable {
 		return true;
 	}
 
+	private File getIndexConfigFile(String repository) {
+		return new File(new File(indexesFolder, repository), CONF_FILE);
+	}
+
+	/**
+	 * Reads the Lucene config file for the repository.
+	 * 
+	 * @param repository
+	 * @return the index properties, empty if the index has not been built
+	 */
+	private Properties readIndexConfig(String repository) {
+		Properties props = new Properties();
+		File file = getIndexConfigFile(repository);
+		if (file.exists()) {
+			try {
+				FileReader reader = new FileReader(file);
+				try {
+					props.load(reader);
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Failed to read " + file, e);
+			}
+		}
+		return props;
+	}
+
+	/**
+	 * Writes the Lucene config file for the repository.
+	 * 
+	 * @param repository
+	 * @param lastModified
+	 *            the high-water mark of the index. poms which were modified
+	 *            after this time have not been indexed by a repository scan.
+	 * @throws IOException
+	 */
+	private void writeIndexConfig(String repository, long lastModified) throws IOException {
+		Properties props = new Properties();
+		props.setProperty(CONF_VERSION, String.valueOf(INDEX_VERSION));
+		props.setProperty(CONF_LAST_MODIFIED, String.valueOf(lastModified));
+		File file = getIndexConfigFile(repository);
+		file.getParentFile().mkdirs();
+		FileWriter writer = new FileWriter(file);
+		try {
+			props.store(writer, "Moxie Proxy Lucene index of " + repository);
+		} finally {
+			writer.close();
+		}
+	}
+
 	/**
 	 * Synchronously indexes a repository. This may build a complete index of a
 	 * repository or it may update an existing index.
@@ -208,9 +488,9 @@ public class LuceneExecutor implements Runnable {
 
 				if (result.success) {
 					if (result.artifactCount > 0) {
-						String msg = "Built {0} Lucene index from {1} artifacts in {2} secs";
+						String msg = "Built {0} Lucene index from {1} artifacts in {2} secs ({3,number,0} poms/sec)";
 						logger.info(MessageFormat.format(msg, repository, result.artifactCount,
-								result.duration()));
+								result.duration(), result.artifactCount / Math.max(0.001f, result.duration())));
 					}
 				} else {
 					String msg = "Could not build {0} Lucene index!";
@@ -231,9 +511,18 @@ public class LuceneExecutor implements Runnable {
 				}
 			}
 
-			// create/update the prefix indexes for the repositories
-			IMavenCache cache = config.getMavenCache(repository);
-			cache.updatePrefixesIndex();
+			// seed the recent artifacts of a new or migrated index
+			seedRecent(repository);
+
+			// create a missing prefix index, the scans add the new prefixes
+			if (!prefixes.exists(repository)) {
+				seedPrefixes(repository);
+			}
+			prefixes.flush();
+
+			// the class index is built in the background, it skips the jars
+			// which are already indexed
+			classes.scan(repository);
 		} catch (Throwable t) {
 			logger.log(Level.SEVERE, MessageFormat.format("Lucene indexing failure for {0}", repository), t);
 		}
@@ -241,12 +530,37 @@ public class LuceneExecutor implements Runnable {
 
 	/**
 	 * Updates a repository index incrementally from the last indexed artifacts.
+	 * Only the poms which were added or modified since the last repository
+	 * scan are parsed and indexed.
 	 * 
 	 * @param repository
 	 * @return IndexResult
 	 */
 	private IndexResult updateIndex(String repository) {
 		IndexResult result = new IndexResult();
+		Properties props = readIndexConfig(repository);
+		long since = Long.parseLong(props.getProperty(CONF_LAST_MODIFIED, "0"));
+		long scanStart = System.currentTimeMillis();
+		ForkJoinPool pool = new ForkJoinPool(REINDEX_THREADS);
+		try {
+			IMavenCache repositoryCache = config.getMavenCache(repository);
+			IndexWriter writer = getIndexWriter(repository);
+			IndexProgress progress = new IndexProgress(repository);
+
+			pool.invoke(new IndexFolder(repositoryCache.getRootFolder(), config.getMoxieCache(), writer, progress, since));
+
+			if (progress.count.get() > 0) {
+				commit(writer);
+				refresh(repository);
+			}
+			writeIndexConfig(repository, scanStart);
+			result.artifactCount = progress.count.get();
+			result.success();
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception while updating index " + repository, e);
+		} finally {
+			pool.shutdown();
+		}
 		return result;
 	}
 
@@ -256,10 +570,11 @@ public class LuceneExecutor implements Runnable {
 	 * @param repositoryName
 	 */
 	public synchronized void close(String repositoryName) {
+		retireFederatedSearchers(repositoryName);
 		try {
-			IndexSearcher searcher = searchers.remove(repositoryName);
+			SearcherManager searcher = searchers.remove(repositoryName);
 			if (searcher != null) {
-				searcher.getIndexReader().close();
+				searcher.close();
 			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Failed to close index searcher for " + repositoryName, e);
@@ -280,10 +595,15 @@ public class LuceneExecutor implements Runnable {
 	 * 
 	 */
 	public synchronized void close() {
+		recent.save();
+		classes.close();
+		retireFederatedSearchers(null);
+		searchExecutor.shutdown();
+
 		// close all writers
 		for (String writer : writers.keySet()) {
 			try {
-				writers.get(writer).close(true);
+				writers.get(writer).close();
 			} catch (Throwable t) {
 				logger.log(Level.SEVERE, "Failed to close Lucene writer for " + writer, t);
 			}
@@ -293,7 +613,7 @@ public class LuceneExecutor implements Runnable {
 		// close all searchers
 		for (String searcher : searchers.keySet()) {
 			try {
-				searchers.get(searcher).getIndexReader().close();
+				searchers.get(searcher).close();
 			} catch (Throwable t) {
 				logger.log(Level.SEVERE, "Failed to close Lucene searcher for " + searcher, t);
 			}
@@ -331,125 +651,408 @@ public class LuceneExecutor implements Runnable {
 		if (!deleteIndex(repository)) {
 			return result;
 		}
+		classes.deleteIndex(repository);
+		// walk the repository and parse the poms in parallel, the writer
+		// accepts documents concurrently from all workers
+		long scanStart = System.currentTimeMillis();
+		ForkJoinPool pool = new ForkJoinPool(REINDEX_THREADS);
 		try {
-			MoxieCache moxieCache = config.getMoxieCache();
 			IMavenCache repositoryCache = config.getMavenCache(repository);
-			Collection<File> files = repositoryCache.getFiles("." + org.moxie.Constants.POM);
 			IndexWriter writer = getIndexWriter(repository);
+			IndexProgress progress = new IndexProgress(repository);
 
-			for (File pomFile : files) {
-				try {
-					Pom pom = PomReader.readPom(moxieCache, pomFile);
-					String date = DateTools.timeToString(pomFile.lastModified(), Resolution.MINUTE);
-
-					Document doc = new Document();
-					doc.add(new Field(FIELD_PACKAGING, pom.packaging, Store.YES, Index.NOT_ANALYZED_NO_NORMS));
-					doc.add(new Field(FIELD_GROUPID, pom.groupId, Store.YES, Index.ANALYZED));
-					doc.add(new Field(FIELD_ARTIFACTID, pom.artifactId, Store.YES, Index.ANALYZED));
-					doc.add(new Field(FIELD_VERSION, pom.version, Store.YES, Index.ANALYZED));
-					if (!StringUtils.isEmpty(pom.name)) {
-						doc.add(new Field(FIELD_NAME, pom.name, Store.YES, Index.ANALYZED));
-					}
-					if (!StringUtils.isEmpty(pom.description)) {
-						doc.add(new Field(FIELD_DESCRIPTION, pom.description, Store.YES, Index.ANALYZED));
-					}
-					doc.add(new Field(FIELD_DATE, date, Store.YES, Index.ANALYZED));
-
-					// add the pom to the index
-					writer.addDocument(doc);
-				} catch (Exception e) {
-					logger.log(Level.SEVERE, MessageFormat.format("Exception while reindexing {0} in {1}",pomFile, repository), e);
-				}
-				result.artifactCount++;
-			}
+			pool.invoke(new IndexFolder(repositoryCache.getRootFolder(), config.getMoxieCache(), writer, progress, 0));
 
-			writer.commit();
-			resetIndexSearcher(repository);
+			commit(writer);
+			refresh(repository);
+			writeIndexConfig(repository, scanStart);
+			result.artifactCount = progress.count.get();
 			result.success();
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Exception while reindexing " + repository, e);
+		} finally {
+			pool.shutdown();
 		}
 		return result;
 	}
 
+	/**
+	 * Recursively walks a repository folder and adds the poms to the index.
+	 * Subfolders are walked concurrently by the fork-join pool.
+	 * <p>
+	 * Proxied poms retain the last modified date of the remote repository so
+	 * a pom is considered new if either the pom or its folder was modified
+	 * after the high-water mark.
+	 */
+	private class IndexFolder extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final File folder;
+		final IMavenCache cache;
+		final IndexWriter writer;
+		final IndexProgress progress;
+		final long since;
+
+		IndexFolder(File folder, IMavenCache cache, IndexWriter writer, IndexProgress progress, long since) {
+			this.folder = folder;
+			this.cache = cache;
+			this.writer = writer;
+			this.progress = progress;
+			this.since = since;
+		}
+
+		@Override
+		protected void compute() {
+			File [] files = folder.listFiles();
+			if (files == null) {
+				return;
+			}
+			boolean folderModified = folder.lastModified() > since;
+			List<IndexFolder> subfolders = new ArrayList<IndexFolder>();
+			for (File file : files) {
+				if (file.isDirectory()) {
+					subfolders.add(new IndexFolder(file, cache, writer, progress, since));
+				} else if (file.getName().endsWith("." + org.moxie.Constants.POM)) {
+					if (!folderModified && file.lastModified() <= since) {
+						// indexed by an earlier scan
+						continue;
+					}
+					try {
+						Pom pom = PomReader.readPom(cache, file);
+						Document doc = createDocument(pom, file);
+						prefixes.add(progress.repository, pom.groupId);
+
+						if (since == 0) {
+							// add the pom to the new index
+							writer.addDocument(doc);
+						} else {
+							// replace the pom in the index
+							writer.updateDocument(new Term(FIELD_ID, doc.get(FIELD_ID)), doc);
+							addRecent(progress.repository, pom, file);
+						}
+					} catch (Exception e) {
+						logger.log(Level.SEVERE, MessageFormat.format("Exception while reindexing {0} in {1}", file, progress.repository), e);
+					}
+					progress.increment();
+				}
+			}
+			invokeAll(subfolders);
+		}
+	}
+
+	/**
+	 * Tracks and periodically reports the progress of a repository scan.
+	 */
+	private class IndexProgress {
+		final String repository;
+		final long start = System.currentTimeMillis();
+		final AtomicInteger count = new AtomicInteger();
+
+		IndexProgress(String repository) {
+			this.repository = repository;
+		}
+
+		void increment() {
+			int n = count.incrementAndGet();
+			if (n % PROGRESS_INTERVAL == 0) {
+				float secs = Math.max(1, System.currentTimeMillis() - start) / 1000f;
+				logger.info(MessageFormat.format("indexing {0}: {1} poms in {2} secs ({3,number,0} poms/sec)",
+						repository, n, secs, n / secs));
+			}
+		}
+	}
+
 	/**
 	 * Incrementally update the index.
 	 * 
 	 * @return pomFile
 	 */
 	public void index(File pomFile) {
-		queue.add(new IndexPom(pomFile));
+		index(config.getRepositoryId(pomFile), pomFile);
 	}
 
 	/**
-	 * Incrementally update the index.
+	 * Incrementally update the index of a repository, e.g. with a pom which
+	 * was uploaded to a local repository.
 	 * 
-	 * @return pomFile
+	 * @param repository
+	 * @param pomFile
 	 */
-	private void incrementalIndex(File pomFile) {
+	public void index(String repository, File pomFile) {
+		if (repository != null) {
+			queue.add(new IndexPom(repository, pomFile));
+		}
+	}
+
+	/**
+	 * Queues a retrieved jar of a proxied repository for the class index.
+	 * This never blocks the caller.
+	 * 
+	 * @param jar
+	 */
+	public void indexClasses(File jar) {
+		indexClasses(config.getRepositoryId(jar), jar);
+	}
+
+	/**
+	 * Queues a jar for the class index of the repository. This never blocks
+	 * the caller.
+	 * 
+	 * @param repository
+	 * @param jar
+	 */
+	public void indexClasses(String repository, File jar) {
+		if (repository != null && ClassIndexer.isIndexable(jar)) {
+			classes.index(repository, jar);
+		}
+	}
+
+	/**
+	 * Removes evicted artifact folders from the artifact and class indexes of
+	 * a repository and from its recent artifacts.
+	 * 
+	 * @param repository
+	 * @param paths
+	 *            the relative paths of the evicted version folders
+	 */
+	public void evict(String repository, Collection<String> paths) {
 		try {
-			String repository = config.getRepositoryId(pomFile);
-			IMavenCache cache = config.getMavenCache(repository);
-			Pom pom = PomReader.readPom(cache, pomFile);
-			
-			delete(repository, pom);
-			
 			IndexWriter writer = getIndexWriter(repository);
-
-			Document doc = new Document();
-			doc.add(new Field(FIELD_PACKAGING, pom.packaging, Store.YES, Index.NOT_ANALYZED_NO_NORMS));
-			doc.add(new Field(FIELD_GROUPID, pom.groupId, Store.YES, Index.ANALYZED));
-			doc.add(new Field(FIELD_ARTIFACTID, pom.artifactId, Store.YES, Index.ANALYZED));
-			doc.add(new Field(FIELD_VERSION, pom.version, Store.YES, Index.ANALYZED));
-			if (!StringUtils.isEmpty(pom.name)) {
-				doc.add(new Field(FIELD_NAME, pom.name, Store.YES, Index.ANALYZED));
+			for (String path : paths) {
+				String [] segments = path.split("/");
+				if (segments.length < 3) {
+					continue;
+				}
+				String version = segments[segments.length - 1];
+				String artifactId = segments[segments.length - 2];
+				String groupId = StringUtils.flattenStrings(Arrays.asList(segments).subList(0, segments.length - 2), ".");
+				BooleanQuery.Builder query = new BooleanQuery.Builder();
+				query.add(new TermQuery(new Term(FIELD_GROUPID_EXACT, groupId)), Occur.FILTER);
+				query.add(new TermQuery(new Term(FIELD_ARTIFACTID_EXACT, artifactId)), Occur.FILTER);
+				query.add(new TermQuery(new Term(FIELD_VERSION_EXACT, version)), Occur.FILTER);
+				writer.deleteDocuments(query.build());
+				recent.remove(repository, groupId + ":" + artifactId + ":" + version);
 			}
-			if (!StringUtils.isEmpty(pom.description)) {
-				doc.add(new Field(FIELD_DESCRIPTION, pom.description, Store.YES, Index.ANALYZED));
+			commit(writer);
+			refresh(repository);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception while evicting artifacts from " + repository, e);
+		}
+		classes.delete(repository, paths);
+		recent.save();
+	}
+
+	/**
+	 * Searches the class indexes of the repositories for the jars which
+	 * contain a class.
+	 * 
+	 * @param className
+	 *            a simple or fully-qualified class name, optionally with a
+	 *            trailing wildcard
+	 * @param page
+	 *            the page number to retrieve. page is 1-indexed.
+	 * @param pageSize
+	 *            the number of elements to return for this page
+	 * @param repositories
+	 * @return a list of SearchResults, newest first
+	 */
+	public List<SearchResult> searchClasses(String className, int page, int pageSize, List<String> repositories) {
+		return classes.search(className, page, pageSize, repositories);
+	}
+
+	/**
+	 * Incrementally update the index of a repository with a batch of poms.
+	 * Each pom replaces any previously indexed document with the same
+	 * coordinates and the batch is committed once.
+	 * 
+	 * @param repository
+	 * @param poms
+	 */
+	private void incrementalIndex(String repository, Map<File, Pom> poms) {
+		try {
+			IndexWriter writer = getIndexWriter(repository);
+			int count = 0;
+			for (Map.Entry<File, Pom> entry : poms.entrySet()) {
+				File pomFile = entry.getKey();
+				try {
+					Document doc = createDocument(entry.getValue(), pomFile);
+
+					// replace the pom in the index
+					writer.updateDocument(new Term(FIELD_ID, doc.get(FIELD_ID)), doc);
+					prefixes.add(repository, entry.getValue().groupId);
+					count++;
+				} catch (Exception e) {
+					logger.log(Level.SEVERE, "Exception while indexing " + pomFile, e);
+				}
 			}
-			String date = DateTools.timeToString(pomFile.lastModified(), Resolution.MINUTE);
-			doc.add(new Field(FIELD_DATE, date, Store.YES, Index.ANALYZED));
 
-			// add the pom to the index
-			writer.addDocument(doc);
+			commit(writer);
+			metrics.indexed(count);
+			logger.info(MessageFormat.format("indexed {0} poms in {1}", count, repository));
 
-			writer.commit();
-			resetIndexSearcher(repository);
-			
-			config.resetRepositorySize(repository);
+			for (Map.Entry<File, Pom> entry : poms.entrySet()) {
+				addRecent(repository, entry.getValue(), entry.getKey());
+			}
 		} catch (Exception e) {
-			logger.log(Level.SEVERE, "Exception while indexing " + pomFile, e);
-		}
-	}
-	
-	private boolean delete(String repository, Pom pom) throws IOException {
-		BooleanQuery query = new BooleanQuery();
-		Term groupTerm = new Term(FIELD_GROUPID, pom.groupId);
-		query.add(new TermQuery(groupTerm), Occur.MUST);
-		Term artifactTerm = new Term(FIELD_ARTIFACTID, pom.artifactId);
-		query.add(new TermQuery(artifactTerm), Occur.MUST);
-		Term versionTerm = new Term(FIELD_VERSION, pom.version);
-		query.add(new TermQuery(versionTerm), Occur.MUST);
-		
-		IndexWriter writer = getIndexWriter(repository);
-		int numDocsBefore = writer.numDocs();
-		writer.deleteDocuments(query);
+			logger.log(Level.SEVERE, "Exception while indexing " + repository, e);
+		}
+	}
+
+	/**
+	 * Commits an artifact index and records the commit time.
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 */
+	private void commit(IndexWriter writer) throws IOException {
+		long start = System.nanoTime();
 		writer.commit();
-		int numDocsAfter = writer.numDocs();
-		if (numDocsBefore == numDocsAfter) {
-			logger.fine(MessageFormat.format("no records found to delete {0}", query.toString()));
-			return false;
-		} else {
-			logger.fine(MessageFormat.format("deleted {0} records with {1}", numDocsBefore - numDocsAfter, query.toString()));
-			return true;
+		metrics.indexCommitted(ProxyMetrics.ARTIFACTS, System.nanoTime() - start);
+	}
+
+	/**
+	 * Creates the Lucene document for a pom.
+	 * 
+	 * @param pom
+	 * @param pomFile
+	 * @return a document
+	 */
+	private Document createDocument(Pom pom, File pomFile) {
+		Document doc = new Document();
+		doc.add(new StringField(FIELD_ID, pom.getCoordinates(), Store.YES));
+		doc.add(new StringField(FIELD_PACKAGING, pom.packaging, Store.YES));
+		doc.add(new SortedDocValuesField(FIELD_PACKAGING, new BytesRef(pom.packaging)));
+		doc.add(new TextField(FIELD_GROUPID, pom.groupId, Store.YES));
+		doc.add(new TextField(FIELD_ARTIFACTID, pom.artifactId, Store.YES));
+		doc.add(new TextField(FIELD_VERSION, pom.version, Store.YES));
+		doc.add(new StringField(FIELD_GROUPID_EXACT, pom.groupId, Store.NO));
+		doc.add(new StringField(FIELD_ARTIFACTID_EXACT, pom.artifactId, Store.NO));
+		doc.add(new StringField(FIELD_VERSION_EXACT, pom.version, Store.NO));
+		doc.add(new TextField(FIELD_GROUPID_PREFIX, pom.groupId, Store.NO));
+		doc.add(new TextField(FIELD_ARTIFACTID_PREFIX, pom.artifactId, Store.NO));
+		doc.add(new TextField(FIELD_GROUPID_SUFFIX, pom.groupId, Store.NO));
+		doc.add(new TextField(FIELD_ARTIFACTID_SUFFIX, pom.artifactId, Store.NO));
+		if (!StringUtils.isEmpty(pom.name)) {
+			doc.add(new TextField(FIELD_NAME, pom.name, Store.YES));
+		}
+		if (!StringUtils.isEmpty(pom.description)) {
+			doc.add(new TextField(FIELD_DESCRIPTION, pom.description, Store.YES));
+		}
+		// date is indexed for range queries, stored and sortable
+		long date = pomFile.lastModified();
+		doc.add(new LongPoint(FIELD_DATE, date));
+		doc.add(new NumericDocValuesField(FIELD_DATE, date));
+		doc.add(new StoredField(FIELD_DATE, date));
+		return doc;
+	}
+
+	private SearchResult createSearchResult(Pom pom, File pomFile) {
+		SearchResult result = new SearchResult();
+		result.date = new Date(pomFile.lastModified());
+		result.groupId = pom.groupId;
+		result.artifactId = pom.artifactId;
+		result.version = pom.version;
+		result.packaging = pom.packaging;
+		result.name = pom.name;
+		result.description = pom.description;
+		return result;
+	}
+
+	/**
+	 * Adds a newly cached artifact to the recent artifacts of the repository.
+	 * Parent poms and boms are not listed.
+	 * 
+	 * @param repository
+	 * @param pom
+	 * @param pomFile
+	 */
+	private void addRecent(String repository, Pom pom, File pomFile) {
+		if (!org.moxie.Constants.POM.equals(pom.packaging)) {
+			SearchResult result = createSearchResult(pom, pomFile);
+			result.repository = repository;
+			recent.add(repository, result);
+		}
+	}
+
+	/**
+	 * Adds the prefixes of all groupIds in the repository index to the
+	 * prefix index.
+	 * 
+	 * @param repository
+	 * @throws IOException
+	 */
+	private void seedPrefixes(String repository) throws IOException {
+		SearcherManager manager = getSearcherManager(repository);
+		manager.maybeRefresh();
+		IndexSearcher searcher = manager.acquire();
+		try {
+			Terms terms = MultiTerms.getTerms(searcher.getIndexReader(), FIELD_GROUPID_EXACT);
+			if (terms == null) {
+				return;
+			}
+			TermsEnum groupIds = terms.iterator();
+			BytesRef groupId;
+			while ((groupId = groupIds.next()) != null) {
+				prefixes.add(repository, groupId.utf8ToString());
+			}
+		} finally {
+			manager.release(searcher);
+		}
+	}
+
+	/**
+	 * Seeds the recent artifacts of a repository from its index, if there are
+	 * no recent artifacts for the repository.
+	 * 
+	 * @param repository
+	 * @throws IOException
+	 */
+	private void seedRecent(String repository) throws IOException {
+		if (!recent.isEmpty(repository)) {
+			return;
+		}
+		SearcherManager manager = getSearcherManager(repository);
+		manager.maybeRefresh();
+		IndexSearcher searcher = manager.acquire();
+		try {
+			BooleanQuery.Builder builder = new BooleanQuery.Builder();
+			builder.add(new MatchAllDocsQuery(), Occur.MUST);
+			builder.add(new TermQuery(new Term(FIELD_PACKAGING, org.moxie.Constants.POM)), Occur.MUST_NOT);
+			Sort sort = new Sort(new SortField(FIELD_DATE, SortField.Type.LONG, true));
+			TopFieldDocs topDocs = searcher.search(builder.build(), recent.getCapacity(), sort);
+			List<SearchResult> results = new ArrayList<SearchResult>();
+			for (ScoreDoc hit : topDocs.scoreDocs) {
+				SearchResult result = createSearchResult(searcher.doc(hit.doc), 0, 0);
+				result.repository = repository;
+				results.add(result);
+			}
+			recent.seed(repository, results);
+			recent.save();
+		} finally {
+			manager.release(searcher);
 		}
 	}
 
-	private SearchResult createSearchResult(Document doc, int hitId, int totalHits) throws ParseException {
+	/**
+	 * Returns the most recently cached artifacts of the repositories.
+	 * 
+	 * @param repositories
+	 * @param page
+	 *            the page number to retrieve. page is 1-indexed.
+	 * @param pageSize
+	 *            the number of elements to return for this page
+	 * @return a list of SearchResults, newest first
+	 */
+	public List<SearchResult> getRecentArtifacts(Collection<String> repositories, int page, int pageSize) {
+		return recent.get(repositories, page, pageSize);
+	}
+
+	private SearchResult createSearchResult(Document doc, int hitId, int totalHits) {
 		SearchResult result = new SearchResult();
 		result.hitId = hitId;
 		result.totalHits = totalHits;
-		result.date = DateTools.stringToDate(doc.get(FIELD_DATE));
+		result.date = new Date(doc.getField(FIELD_DATE).numericValue().longValue());
 		result.groupId = doc.get(FIELD_GROUPID);
 		result.artifactId = doc.get(FIELD_ARTIFACTID);
 		result.version = doc.get(FIELD_VERSION);
@@ -459,25 +1062,53 @@ public class LuceneExecutor implements Runnable {
 		return result;
 	}
 
-	private synchronized void resetIndexSearcher(String repository) throws IOException {
-		IndexSearcher searcher = searchers.remove(repository);
+	/**
+	 * Returns the number of artifacts in the repository index.
+	 * 
+	 * @param repository
+	 * @return the artifact count
+	 */
+	public int getArtifactCount(String repository) {
+		try {
+			SearcherManager manager = getSearcherManager(repository);
+			IndexSearcher searcher = manager.acquire();
+			try {
+				return searcher.getIndexReader().numDocs();
+			} finally {
+				manager.release(searcher);
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to count artifacts in " + repository, e);
+		}
+		return 0;
+	}
+
+	/**
+	 * Immediately refreshes the searcher of a repository.
+	 * 
+	 * @param repository
+	 * @throws IOException
+	 */
+	private void refresh(String repository) throws IOException {
+		SearcherManager searcher = searchers.get(repository);
 		if (searcher != null) {
-			searcher.getIndexReader().close();
+			searcher.maybeRefresh();
 		}
 	}
 
 	/**
-	 * Gets an index searcher for the repository.
+	 * Gets the near-real-time searcher manager for the repository. Searchers
+	 * must be acquired from and released to the manager.
 	 * 
 	 * @param repository
 	 * @return
 	 * @throws IOException
 	 */
-	private IndexSearcher getIndexSearcher(String repository) throws IOException {
-		IndexSearcher searcher = searchers.get(repository);
+	private synchronized SearcherManager getSearcherManager(String repository) throws IOException {
+		SearcherManager searcher = searchers.get(repository);
 		if (searcher == null) {
 			IndexWriter writer = getIndexWriter(repository);
-			searcher = new IndexSearcher(IndexReader.open(writer, true));
+			searcher = new SearcherManager(writer, searcherFactory);
 			searchers.put(repository, searcher);
 		}
 		return searcher;
@@ -493,22 +1124,264 @@ public class LuceneExecutor implements Runnable {
 	 */
 	private IndexWriter getIndexWriter(String repository) throws IOException {
 		IndexWriter indexWriter = writers.get(repository);
-		File indexFolder = new File(indexesFolder, repository);
-		Directory directory = FSDirectory.open(indexFolder);
-
 		if (indexWriter == null) {
+			File indexFolder = new File(indexesFolder, repository);
 			if (!indexFolder.exists()) {
 				indexFolder.mkdirs();
 			}
-			StandardAnalyzer analyzer = new StandardAnalyzer(LUCENE_VERSION);
-			IndexWriterConfig config = new IndexWriterConfig(LUCENE_VERSION, analyzer);
+			Directory directory = FSDirectory.open(indexFolder.toPath());
+			IndexWriterConfig config = new IndexWriterConfig(createIndexAnalyzer());
 			config.setOpenMode(OpenMode.CREATE_OR_APPEND);
+			config.setRAMBufferSizeMB(RAM_BUFFER_MB);
 			indexWriter = new IndexWriter(directory, config);
 			writers.put(repository, indexWriter);
 		}
 		return indexWriter;
 	}
 
+	/**
+	 * Creates the index analyzer. The coordinate fields are split into tokens
+	 * and indexed with their prefixes or reversed so that prefix and suffix
+	 * queries are term lookups and not term dictionary scans.
+	 * 
+	 * @return the index analyzer
+	 */
+	private Analyzer createIndexAnalyzer() {
+		Analyzer prefix = new CoordinateAnalyzer(Mode.PREFIX);
+		Analyzer suffix = new CoordinateAnalyzer(Mode.REVERSE);
+		Map<String, Analyzer> analyzers = new HashMap<String, Analyzer>();
+		analyzers.put(FIELD_GROUPID_PREFIX, prefix);
+		analyzers.put(FIELD_ARTIFACTID_PREFIX, prefix);
+		analyzers.put(FIELD_GROUPID_SUFFIX, suffix);
+		analyzers.put(FIELD_ARTIFACTID_SUFFIX, suffix);
+		return new PerFieldAnalyzerWrapper(new StandardAnalyzer(), analyzers);
+	}
+
+	/**
+	 * Creates the query for the search text. The text may be
+	 * <ul>
+	 * <li>coordinates, e.g. groupId:artifactId:version, where each segment is
+	 * matched exactly, may end with a wildcard, or may be omitted</li>
+	 * <li>simple terms, e.g. commons lang, which are matched as token prefixes
+	 * of the groupId or the artifactId. A leading wildcard matches a token
+	 * suffix.</li>
+	 * <li>a Lucene query</li>
+	 * </ul>
+	 * 
+	 * @param text
+	 * @param typeahead
+	 *            if true, the last coordinate segment is matched as a prefix
+	 * @return a query
+	 * @throws ParseException
+	 */
+	static Query createQuery(String text, boolean typeahead) throws ParseException {
+		text = text.trim();
+		if ("*".equals(text)) {
+			// list all artifacts
+			return new MatchAllDocsQuery();
+		}
+		if (isCoordinates(text)) {
+			return createCoordinatesQuery(text, typeahead);
+		}
+		if (isSimple(text)) {
+			return createTermsQuery(text);
+		}
+
+		// Lucene query syntax checks groupId and artifactId
+		StandardAnalyzer analyzer = new StandardAnalyzer();
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		QueryParser qp;
+		qp = new DateQueryParser(FIELD_GROUPID, analyzer);
+		qp.setAllowLeadingWildcard(true);
+		builder.add(qp.parse(text), Occur.SHOULD);
+
+		qp = new DateQueryParser(FIELD_ARTIFACTID, analyzer);
+		qp.setAllowLeadingWildcard(true);
+		builder.add(qp.parse(text), Occur.SHOULD);
+		return builder.build();
+	}
+
+	/**
+	 * Query parser which maps date terms and ranges, e.g.
+	 * date:[20120101 TO 20121231], to point queries of the indexed dates. Dates
+	 * are specified as yyyyMMdd or yyyyMMddHHmm in GMT, a range bound of * is
+	 * open.
+	 */
+	static class DateQueryParser extends QueryParser {
+
+		DateQueryParser(String field, Analyzer analyzer) {
+			super(field, analyzer);
+		}
+
+		@Override
+		protected Query getFieldQuery(String field, String queryText, boolean quoted) throws ParseException {
+			if (FIELD_DATE.equals(field)) {
+				return LongPoint.newRangeQuery(FIELD_DATE, parseDate(queryText, false), parseDate(queryText, true));
+			}
+			return super.getFieldQuery(field, queryText, quoted);
+		}
+
+		@Override
+		protected Query getRangeQuery(String field, String part1, String part2, boolean startInclusive,
+				boolean endInclusive) throws ParseException {
+			if (FIELD_DATE.equals(field)) {
+				long from = Long.MIN_VALUE;
+				if (part1 != null && !"*".equals(part1)) {
+					from = startInclusive ? parseDate(part1, false) : parseDate(part1, true) + 1;
+				}
+				long to = Long.MAX_VALUE;
+				if (part2 != null && !"*".equals(part2)) {
+					to = endInclusive ? parseDate(part2, true) : parseDate(part2, false) - 1;
+				}
+				return LongPoint.newRangeQuery(FIELD_DATE, from, to);
+			}
+			return super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+		}
+
+		/**
+		 * Returns the first or the last millisecond of a day or a minute.
+		 */
+		static long parseDate(String text, boolean end) throws ParseException {
+			String pattern;
+			int field;
+			if (text.length() == 8) {
+				pattern = "yyyyMMdd";
+				field = Calendar.DATE;
+			} else if (text.length() == 12) {
+				pattern = "yyyyMMddHHmm";
+				field = Calendar.MINUTE;
+			} else {
+				throw new ParseException("Illegal date " + text + ", expected yyyyMMdd or yyyyMMddHHmm");
+			}
+			SimpleDateFormat df = new SimpleDateFormat(pattern);
+			df.setTimeZone(TimeZone.getTimeZone("GMT"));
+			df.setLenient(false);
+			Calendar c = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+			try {
+				c.setTime(df.parse(text));
+			} catch (java.text.ParseException e) {
+				throw new ParseException("Illegal date " + text + ", expected yyyyMMdd or yyyyMMddHHmm");
+			}
+			if (end) {
+				c.add(field, 1);
+				return c.getTimeInMillis() - 1;
+			}
+			return c.getTimeInMillis();
+		}
+	}
+
+	private static boolean isCoordinates(String text) {
+		int colon = text.indexOf(':');
+		if (colon < 0 || WHITESPACE.matcher(text).find()) {
+			return false;
+		}
+		// field:value is a Lucene query
+		return !FIELDS.contains(text.substring(0, colon).toLowerCase());
+	}
+
+	private static boolean isSimple(String text) {
+		if (!SIMPLE_QUERY.matcher(text).matches()) {
+			return false;
+		}
+		for (String word : WHITESPACE.split(text)) {
+			if ("AND".equals(word) || "OR".equals(word) || "NOT".equals(word)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates an exact coordinates query. Maven style coordinates with a
+	 * packaging or classifier are accepted, the last segment is the version.
+	 * 
+	 * @param text
+	 * @param typeahead
+	 * @return a query
+	 */
+	private static Query createCoordinatesQuery(String text, boolean typeahead) {
+		String [] segments = text.split(":", -1);
+		if (segments.length > 3) {
+			segments = new String [] { segments[0], segments[1], segments[segments.length - 1] };
+		}
+		String [] fields = { FIELD_GROUPID_EXACT, FIELD_ARTIFACTID_EXACT, FIELD_VERSION_EXACT };
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		int clauses = 0;
+		for (int i = 0; i < segments.length; i++) {
+			String segment = segments[i];
+			if (segment.length() == 0 || "*".equals(segment)) {
+				continue;
+			}
+			int wildcard = segment.indexOf('*');
+			Query query;
+			if (wildcard == segment.length() - 1) {
+				query = new PrefixQuery(new Term(fields[i], segment.substring(0, wildcard)));
+			} else if (wildcard > -1 || segment.indexOf('?') > -1) {
+				query = new WildcardQuery(new Term(fields[i], segment));
+			} else if (typeahead && i == segments.length - 1) {
+				query = new PrefixQuery(new Term(fields[i], segment));
+			} else {
+				query = new TermQuery(new Term(fields[i], segment));
+			}
+			// constant score, filtering by coordinates
+			builder.add(query, Occur.FILTER);
+			clauses++;
+		}
+		if (clauses == 0) {
+			return new MatchAllDocsQuery();
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Creates a query where each whitespace separated word must match tokens
+	 * of the groupId or the artifactId. Tokens are matched as prefixes, the
+	 * first token of a word with a leading wildcard is matched as a suffix.
+	 * Exact groupId and artifactId matches score highest.
+	 * 
+	 * @param text
+	 * @return a query
+	 */
+	private static Query createTermsQuery(String text) {
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		for (String word : WHITESPACE.split(text)) {
+			boolean suffix = word.startsWith("*") && !word.endsWith("*");
+			List<String> tokens = CoordinateAnalyzer.tokenize(word);
+			for (int i = 0; i < tokens.size(); i++) {
+				String token = tokens.get(i);
+				BooleanQuery.Builder fields = new BooleanQuery.Builder();
+				if (suffix && i == 0) {
+					String reversed = CoordinateAnalyzer.suffixTerm(token);
+					fields.add(new PrefixQuery(new Term(FIELD_GROUPID_SUFFIX, reversed)), Occur.SHOULD);
+					fields.add(new PrefixQuery(new Term(FIELD_ARTIFACTID_SUFFIX, reversed)), Occur.SHOULD);
+				} else {
+					String gram = CoordinateAnalyzer.prefixTerm(token);
+					fields.add(new TermQuery(new Term(FIELD_GROUPID_PREFIX, gram)), Occur.SHOULD);
+					fields.add(new TermQuery(new Term(FIELD_ARTIFACTID_PREFIX, gram)), Occur.SHOULD);
+				}
+				builder.add(fields.build(), Occur.MUST);
+			}
+			if (word.indexOf('*') < 0) {
+				builder.add(new BoostQuery(new TermQuery(new Term(FIELD_ARTIFACTID_EXACT, word)), 4f), Occur.SHOULD);
+				builder.add(new BoostQuery(new TermQuery(new Term(FIELD_GROUPID_EXACT, word)), 2f), Occur.SHOULD);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns true if the search text is matched as simple terms. Simple
+	 * terms are sorted by relevance so that exact groupId and artifactId
+	 * matches are listed first, all other queries are sorted by date.
+	 * 
+	 * @param text
+	 * @return true if the hits are sorted by relevance
+	 */
+	static boolean isRelevanceSorted(String text) {
+		text = text.trim();
+		return !"*".equals(text) && !isCoordinates(text) && isSimple(text);
+	}
+
 	/**
 	 * Searches the specified repositories for the given text or query
 	 * 
@@ -521,7 +1394,8 @@ public class LuceneExecutor implements Runnable {
 	 * @param repositories
 	 *            a list of repositories to search. if no repositories are
 	 *            specified null is returned.
-	 * @return a list of SearchResults in order from highest to the lowest score
+	 * @return a list of SearchResults, simple terms are ordered by relevance
+	 *         and all other queries by date, newest first
 	 * 
 	 */
 	public List<SearchResult> search(String text, int page, int pageSize, List<String> repositories) {
@@ -543,7 +1417,8 @@ public class LuceneExecutor implements Runnable {
 	 * @param repositories
 	 *            a list of repositories to search. if no repositories are
 	 *            specified null is returned.
-	 * @return a list of SearchResults in order from highest to the lowest score
+	 * @return a list of SearchResults, simple terms are ordered by relevance
+	 *         and all other queries by date, newest first
 	 * 
 	 */
 	public List<SearchResult> search(String text, int page, int pageSize, String... repositories) {
@@ -554,126 +1429,387 @@ public class LuceneExecutor implements Runnable {
 			return null;
 		}
 		Set<SearchResult> results = new LinkedHashSet<SearchResult>();
-		StandardAnalyzer analyzer = new StandardAnalyzer(LUCENE_VERSION);
+		FederatedSearcher federated = null;
 		try {
-			// default search checks groupId and artifactId
-			BooleanQuery query = new BooleanQuery();
-			QueryParser qp;
-			qp = new QueryParser(LUCENE_VERSION, FIELD_GROUPID, analyzer);
-			qp.setAllowLeadingWildcard(true);
-			query.add(qp.parse(text), Occur.SHOULD);
-
-			qp = new QueryParser(LUCENE_VERSION, FIELD_ARTIFACTID, analyzer);
-			qp.setAllowLeadingWildcard(true);
-			query.add(qp.parse(text), Occur.SHOULD);
-
-			IndexSearcher searcher;
-			if (repositories.length == 1) {
-				// single repository search
-				searcher = getIndexSearcher(repositories[0]);
-			} else {
-				// multiple repository search
-				List<IndexReader> readers = new ArrayList<IndexReader>();
-				for (String repository : repositories) {
-					IndexSearcher repositoryIndex = getIndexSearcher(repository);
-					readers.add(repositoryIndex.getIndexReader());
-				}
-				IndexReader[] rdrs = readers.toArray(new IndexReader[readers.size()]);
-				MultiSourceReader reader = new MultiSourceReader(rdrs);
-				searcher = new IndexSearcher(reader);
-			}
-			Query rewrittenQuery = searcher.rewrite(query);
-			Sort sort = new Sort(new SortField(FIELD_DATE, SortField.STRING, true));
-			TopFieldDocs topDocs = searcher.search(rewrittenQuery, 10000, sort);
+			Query query = createQuery(text, false);
+			federated = acquireSearcher(repositories);
+			IndexSearcher searcher = federated.searcher;
+
 			int offset = Math.max(0, (page - 1) * pageSize);
-			ScoreDoc[] hits = topDocs.scoreDocs;
-			int totalHits = topDocs.totalHits;
 			if (pageSize <= 0) {
-				pageSize = totalHits;
+				// all hits
+				pageSize = searcher.count(query);
 			}
-			if (totalHits > offset) {
-				for (int i = offset, len = Math.min(offset + pageSize, hits.length); i < len; i++) {
+			int numHits = offset + pageSize;
+			if (numHits > 0) {
+				// the segments are searched concurrently and only their top
+				// hits up to the requested page are merged, the total hit
+				// count is exact
+				Sort sort;
+				if (isRelevanceSorted(text)) {
+					// relevance first, ties newest first
+					sort = new Sort(SortField.FIELD_SCORE, new SortField(FIELD_DATE, SortField.Type.LONG, true));
+				} else {
+					sort = new Sort(new SortField(FIELD_DATE, SortField.Type.LONG, true));
+				}
+				TopFieldDocs topDocs = searcher.search(query,
+						TopFieldCollector.createSharedManager(sort, numHits, null, Integer.MAX_VALUE));
+				int totalHits = (int) topDocs.totalHits.value;
+				ScoreDoc[] hits = topDocs.scoreDocs;
+				for (int i = offset; i < hits.length; i++) {
 					int docId = hits[i].doc;
 					Document doc = searcher.doc(docId);
 					SearchResult result = createSearchResult(doc, i + 1, totalHits);
-					if (repositories.length == 1) {
-						// single repository search
-						result.repository = repositories[0];
-					} else {
-						// multi-repository search
-						MultiSourceReader reader = (MultiSourceReader) searcher.getIndexReader();
-						int index = reader.getSourceIndex(docId);
-						result.repository = repositories[index];
-					}
+					result.repository = federated.getRepository(docId);
 					results.add(result);
 				}
 			}
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, MessageFormat.format("Exception while searching for {0}", text), e);
+		} finally {
+			if (federated != null) {
+				federated.decRef();
+			}
 		}
 		return new ArrayList<SearchResult>(results);
 	}
 
 	/**
-	 * Simple class to track the results of an index update.
+	 * Suggests artifacts for a partially typed search text. Suggestions are
+	 * distinct groupId:artifactId coordinates, or groupId:artifactId:version
+	 * coordinates if the text specifies a version segment, ordered by
+	 * relevance.
+	 * 
+	 * @param text
+	 *            partial coordinates or terms
+	 * @param count
+	 *            the maximum number of suggestions
+	 * @param repositories
+	 *            the repositories to search
+	 * @return a list of coordinates
 	 */
-	private class IndexResult {
-		long startTime = System.currentTimeMillis();
-		long endTime = startTime;
-		boolean success;
-		int artifactCount;
+	public List<String> suggest(String text, int count, List<String> repositories) {
+		Set<String> suggestions = new LinkedHashSet<String>();
+		if (StringUtils.isEmpty(text) || count <= 0 || repositories == null || repositories.isEmpty()) {
+			return new ArrayList<String>(suggestions);
+		}
+		boolean versions = text.indexOf(':') != text.lastIndexOf(':');
+		FederatedSearcher federated = null;
+		try {
+			Query query = createQuery(text, true);
+			federated = acquireSearcher(repositories.toArray(new String[0]));
+			// many hits collapse into the same artifact
+			TopDocs topDocs = federated.searcher.search(query, Math.min(MAX_SUGGEST_HITS, count * 10));
+			for (ScoreDoc hit : topDocs.scoreDocs) {
+				Document doc = federated.searcher.doc(hit.doc, SUGGEST_FIELDS);
+				String coordinates = doc.get(FIELD_GROUPID) + ":" + doc.get(FIELD_ARTIFACTID);
+				if (versions) {
+					coordinates += ":" + doc.get(FIELD_VERSION);
+				}
+				suggestions.add(coordinates);
+				if (suggestions.size() == count) {
+					break;
+				}
+			}
+		} catch (ParseException e) {
+			// incomplete query syntax while typing
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, MessageFormat.format("Exception while suggesting for {0}", text), e);
+		} finally {
+			if (federated != null) {
+				federated.decRef();
+			}
+		}
+		return new ArrayList<String>(suggestions);
+	}
 
-		void success() {
-			success = true;
-			endTime = System.currentTimeMillis();
+	/**
+	 * Identifies the source repository index of a multi-repository doc id.
+	 * 
+	 * @param starts
+	 *            the first doc id of each repository index
+	 * @param docId
+	 * @return the repository index
+	 */
+	private int getSourceIndex(int [] starts, int docId) {
+		int index = Arrays.binarySearch(starts, docId);
+		if (index < 0) {
+			// insertion point - 1
+			index = -index - 2;
+		} else {
+			// skip empty indexes which share the same start
+			while (index + 1 < starts.length && starts[index + 1] == docId) {
+				index++;
+			}
 		}
+		return index;
+	}
 
-		float duration() {
-			return (endTime - startTime) / 1000f;
+	/**
+	 * Finds the repository folders of dependencies. Each dependency is looked
+	 * up with a single term query on the coordinates of the indexed poms. If
+	 * several repositories contain a dependency, the last repository wins.
+	 * 
+	 * @param dependencies
+	 * @param repositories
+	 *            the repositories in order of increasing precedence
+	 * @return the links of the dependencies which were found
+	 */
+	public List<DependencyLink> find(Collection<Dependency> dependencies, List<String> repositories) {
+		List<DependencyLink> links = new ArrayList<DependencyLink>();
+		if (dependencies.isEmpty() || repositories == null || repositories.isEmpty()) {
+			return links;
 		}
+		FederatedSearcher federated = null;
+		try {
+			federated = acquireSearcher(repositories.toArray(new String[0]));
+			// point lookups are not worth dispatching to the search executor
+			IndexSearcher searcher = new IndexSearcher(federated.searcher.getIndexReader());
+			for (Dependency dependency : dependencies) {
+				String coordinates = dependency.getCoordinates();
+				TopDocs topDocs = searcher.search(new TermQuery(new Term(FIELD_ID, coordinates)), repositories.size());
+				int index = -1;
+				for (ScoreDoc hit : topDocs.scoreDocs) {
+					index = Math.max(index, federated.getRepositoryIndex(hit.doc));
+				}
+				if (index > -1) {
+					String path = repositories.get(index) + "/" + dependency.groupId.replace('.', '/') + "/"
+							+ dependency.artifactId + "/" + dependency.version;
+					links.add(new DependencyLink(coordinates, path));
+				}
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Exception while finding dependencies", e);
+		} finally {
+			if (federated != null) {
+				federated.decRef();
+			}
+		}
+		return links;
 	}
 
 	/**
-	 * Custom subclass of MultiReader to identify the source index for a given
-	 * doc id. This would not be necessary of there was a public method to
-	 * obtain this information.
+	 * Acquires the federated searcher of a set of repositories. The cached
+	 * federated searcher is reused until one of its member indexes has been
+	 * refreshed. The federated searcher must be released with decRef.
 	 * 
+	 * @param repositories
+	 * @return a federated searcher
+	 * @throws IOException
+	 */
+	private FederatedSearcher acquireSearcher(String... repositories) throws IOException {
+		String key = StringUtils.flattenStrings(Arrays.asList(repositories), ",");
+		FederatedSearcher federated = federations.get(key);
+		if (federated != null && federated.isCurrent() && federated.tryIncRef()) {
+			return federated;
+		}
+		synchronized (federations) {
+			federated = federations.get(key);
+			if (federated != null && federated.isCurrent() && federated.tryIncRef()) {
+				// rebuilt by a concurrent search
+				return federated;
+			}
+			federated = new FederatedSearcher(repositories);
+			federated.tryIncRef();
+			FederatedSearcher previous = federations.put(key, federated);
+			if (previous != null) {
+				// release the cache reference, in-flight searches keep theirs
+				previous.decRef();
+			}
+			return federated;
+		}
+	}
+
+	/**
+	 * Releases the cached federated searchers which include the repository.
+	 * 
+	 * @param repository
+	 *            the repository, or null for all federated searchers
+	 */
+	private void retireFederatedSearchers(String repository) {
+		for (Map.Entry<String, FederatedSearcher> entry : federations.entrySet()) {
+			FederatedSearcher federated = entry.getValue();
+			if (repository == null || Arrays.asList(federated.repositories).contains(repository)) {
+				if (federations.remove(entry.getKey(), federated)) {
+					federated.decRef();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A searcher over the searchers of one or more repositories. Multiple
+	 * repositories are searched through a MultiReader whose segments are
+	 * searched concurrently by the search executor.
+	 * <p>
+	 * Federated searchers are shared by concurrent searches and are reference
+	 * counted. The MultiReader and the member searchers are released when the
+	 * last reference is released.
 	 */
-	private class MultiSourceReader extends MultiReader {
+	private class FederatedSearcher {
+		final String [] repositories;
+		final SearcherManager [] managers;
+		final IndexSearcher [] members;
+		final int [] starts;
+		final IndexSearcher searcher;
+		MultiReader reader;
 
-		final Method method;
+		// the federation cache holds the initial reference
+		final AtomicInteger refCount = new AtomicInteger(1);
 
-		MultiSourceReader(IndexReader[] subReaders) {
-			super(subReaders);
-			Method m = null;
+		FederatedSearcher(String... repositories) throws IOException {
+			this.repositories = repositories;
+			this.managers = new SearcherManager[repositories.length];
+			this.members = new IndexSearcher[repositories.length];
+			this.starts = new int[repositories.length];
 			try {
-				m = MultiReader.class.getDeclaredMethod("readerIndex", int.class);
-				m.setAccessible(true);
-			} catch (Exception e) {
-				logger.log(Level.SEVERE, "Error getting readerIndex method", e);
+				for (int i = 0; i < repositories.length; i++) {
+					managers[i] = getSearcherManager(repositories[i]);
+					members[i] = managers[i].acquire();
+				}
+				if (repositories.length == 1) {
+					// single repository search
+					searcher = members[0];
+				} else {
+					// multiple repository search
+					IndexReader[] rdrs = new IndexReader[members.length];
+					int maxDoc = 0;
+					for (int i = 0; i < members.length; i++) {
+						rdrs[i] = members[i].getIndexReader();
+						starts[i] = maxDoc;
+						maxDoc += rdrs[i].maxDoc();
+					}
+					// the MultiReader holds a reference to each sub reader
+					// until it is closed
+					reader = new MultiReader(rdrs, false);
+					searcher = new IndexSearcher(reader, searchExecutor);
+				}
+			} catch (IOException e) {
+				release();
+				throw e;
 			}
-			method = m;
 		}
 
-		int getSourceIndex(int docId) {
-			int index = -1;
-			try {
-				Object o = method.invoke(this, docId);
-				index = (Integer) o;
-			} catch (Exception e) {
-				logger.log(Level.SEVERE, "Error getting source index", e);
+		/**
+		 * Returns true if every member is the current searcher of its
+		 * repository.
+		 */
+		boolean isCurrent() {
+			for (int i = 0; i < repositories.length; i++) {
+				if (searchers.get(repositories[i]) != managers[i]) {
+					// index was closed or rebuilt
+					return false;
+				}
+				try {
+					IndexSearcher current = managers[i].acquire();
+					try {
+						if (current != members[i]) {
+							// index was refreshed
+							return false;
+						}
+					} finally {
+						managers[i].release(current);
+					}
+				} catch (AlreadyClosedException e) {
+					return false;
+				} catch (IOException e) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		boolean tryIncRef() {
+			int count;
+			while ((count = refCount.get()) > 0) {
+				if (refCount.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void decRef() {
+			if (refCount.decrementAndGet() == 0) {
+				release();
+			}
+		}
+
+		String getRepository(int docId) {
+			return repositories[getRepositoryIndex(docId)];
+		}
+
+		int getRepositoryIndex(int docId) {
+			if (repositories.length == 1) {
+				return 0;
+			}
+			return getSourceIndex(starts, docId);
+		}
+
+		private void release() {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (Exception e) {
+					logger.log(Level.SEVERE, "Failed to close Lucene federated reader", e);
+				}
+				reader = null;
+			}
+			for (int i = 0; i < members.length; i++) {
+				if (members[i] != null) {
+					try {
+						managers[i].release(members[i]);
+					} catch (Exception e) {
+						logger.log(Level.SEVERE, "Failed to release Lucene searcher for " + repositories[i], e);
+					}
+					members[i] = null;
+				}
 			}
-			return index;
 		}
 	}
-	
-	private class IndexPom {
+
+	/**
+	 * Simple class to track the results of an index update.
+	 */
+	private class IndexResult {
+		long startTime = System.currentTimeMillis();
+		long endTime = startTime;
+		boolean success;
+		int artifactCount;
+
+		void success() {
+			success = true;
+			endTime = System.currentTimeMillis();
+		}
+
+		float duration() {
+			return (endTime - startTime) / 1000f;
+		}
+	}
+
+	private class IndexPom implements Delayed {
+		final String repository;
 		final File file;
 		final Date date;
+		String parent;
+		long expires;
+		int attempts;
 		
-		IndexPom(File file) {
+		IndexPom(String repository, File file) {
+			this.repository = repository;
 			this.file = file;
 			this.date = new Date();
 		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(expires - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			long diff = getDelay(TimeUnit.MILLISECONDS) - o.getDelay(TimeUnit.MILLISECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
 	}
 }
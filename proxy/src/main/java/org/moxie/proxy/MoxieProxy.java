@@ -17,17 +17,19 @@ package org.moxie.proxy;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.text.MessageFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
+import org.moxie.Dependency;
 import org.moxie.IMavenCache;
 import org.moxie.Pom;
 import org.moxie.PomReader;
@@ -35,38 +37,85 @@ import org.moxie.RemoteRepository;
 import org.moxie.proxy.connection.ProxyConnectionServer;
 import org.moxie.proxy.resources.ArtifactsResource;
 import org.moxie.proxy.resources.AtomResource;
+import org.moxie.proxy.resources.ClassSearchResource;
+import org.moxie.proxy.resources.MetricsResource;
 import org.moxie.proxy.resources.RecentResource;
 import org.moxie.proxy.resources.RootResource;
 import org.moxie.proxy.resources.SearchResource;
+import org.moxie.proxy.resources.SuggestResource;
+import org.moxie.proxy.resources.SyncResource;
 import org.moxie.utils.StringUtils;
 import org.restlet.Application;
 import org.restlet.Context;
 import org.restlet.Restlet;
+import org.restlet.data.MediaType;
 import org.restlet.ext.freemarker.ContextTemplateLoader;
 import org.restlet.resource.Directory;
 import org.restlet.routing.Router;
 import org.restlet.routing.TemplateRoute;
 import org.restlet.routing.Variable;
+import org.restlet.service.EncoderService;
 
+import freemarker.cache.StrongCacheStorage;
 import freemarker.template.Configuration;
 
 public class MoxieProxy extends Application {
 
+	private static final int PAGE_CACHE_SIZE = 1000;
+
+	/**
+	 * The templates are loaded from the classpath and do not change at
+	 * runtime, so they are never checked for modifications.
+	 */
+	private static final int TEMPLATE_UPDATE_DELAY = Integer.MAX_VALUE;
+
+	private static final String [] TEMPLATES = { "header.html", "navbar.html", "footer.html",
+		"breadcrumbs.html", "results.html", "metadata.html", "root.html", "artifacts.html", "artifact.html",
+		"recent.html", "search.html", "classes.html", "sync.html", "error.html" };
+
+	private static final int EVICTION_INTERVAL = 10;
+
 	private final ProxyConfig config;
 
+	private final ProxyMetrics metrics;
+
 	private final LuceneExecutor lucene;
+
+	private final AccessTracker tracker;
+
+	private final SyncManager sync;
 	
 	private final ProxyConnectionServer proxy;
 	
 	private final ScheduledExecutorService executorService;
 
-	private Configuration configuration;
+	private final PageCache pageCache;
+
+	private volatile Configuration configuration;
 	
 	public MoxieProxy(ProxyConfig config) {
 		this.config = config;
-		this.lucene = new LuceneExecutor(config);
-		this.proxy = new ProxyConnectionServer(config, lucene);
-		this.executorService = Executors.newSingleThreadScheduledExecutor();
+		this.metrics = new ProxyMetrics();
+		this.lucene = new LuceneExecutor(config, metrics);
+		this.tracker = new AccessTracker(new File(config.getMoxieRoot(), "access.dat"));
+		this.tracker.load();
+		this.proxy = new ProxyConnectionServer(config, lucene, metrics, tracker);
+		this.sync = new SyncManager(config, metrics, lucene);
+		this.executorService = Executors.newScheduledThreadPool(3);
+		this.pageCache = new PageCache(PAGE_CACHE_SIZE);
+
+		if (config.isCompressResponses()) {
+			// negotiate gzip/deflate compression of the browsing pages, feeds
+			// and text artifacts. binary artifacts are already compressed.
+			EncoderService encoder = getEncoderService();
+			encoder.getAcceptedMediaTypes().clear();
+			encoder.getAcceptedMediaTypes().add(MediaType.TEXT_ALL);
+			encoder.getAcceptedMediaTypes().add(MediaType.APPLICATION_XML);
+			encoder.getAcceptedMediaTypes().add(MediaType.APPLICATION_ATOM);
+			encoder.getAcceptedMediaTypes().add(MediaType.APPLICATION_JSON);
+			encoder.getAcceptedMediaTypes().add(MediaType.APPLICATION_JAVASCRIPT);
+			encoder.setEnabled(true);
+		}
 	}
 	
 	@Override
@@ -74,9 +123,20 @@ public class MoxieProxy extends Application {
 		Context context = getContext();
 		
 		// initialize Freemarker templates		
-		configuration = new Configuration();		
-		configuration.setTemplateLoader(new ContextTemplateLoader(context, "clap://class/templates"));
-		configuration.setDateFormat(config.getDateFormat());
+		Configuration templates = new Configuration();		
+		templates.setTemplateLoader(new ContextTemplateLoader(context, "clap://class/templates"));
+		templates.setDateFormat(config.getDateFormat());
+		templates.setTemplateUpdateDelay(TEMPLATE_UPDATE_DELAY);
+		templates.setCacheStorage(new StrongCacheStorage());
+		for (String name : TEMPLATES) {
+			// parse the templates once, before the first request
+			try {
+				templates.getTemplate(name);
+			} catch (IOException e) {
+				getLogger().log(Level.WARNING, "Failed to load template " + name, e);
+			}
+		}
+		configuration = templates;
 
 		// map the routes
 		Router router = new Router(context);
@@ -96,6 +156,21 @@ public class MoxieProxy extends Application {
 		// Search artifacts
 		router.attach("/search", SearchResource.class);
 
+		// Search classes
+		router.attach("/classes", ClassSearchResource.class);
+
+		// Typeahead suggestions
+		router.attach("/suggest", SuggestResource.class);
+
+		// Sync jobs
+		if (config.isAllowSync()) {
+			router.attach("/sync/{job}", SyncResource.class);
+			router.attach("/sync", SyncResource.class);
+		}
+
+		// Prometheus metrics
+		router.attach("/metrics", MetricsResource.class);
+
 		// Recent artifacts
 		router.attach("/recent/{repository}", RecentResource.class);
 		router.attach("/recent", RecentResource.class);
@@ -133,7 +208,15 @@ public class MoxieProxy extends Application {
 		Directory m2 = new Directory(context, config.getArtifactRoot(folder).toURI().toString());
 		m2.setListingAllowed(true);
 		m2.setDeeplyAccessible(true);
-		router.attach("/m2/" + folder, m2);
+		if (config.isRemoteRepository(folder)) {
+			// track the served artifacts of proxied repositories for eviction
+			router.attach("/m2/" + folder, new AccessFilter(context, m2, tracker, config.getArtifactRoot(folder)));
+		} else if (config.isAllowUploads()) {
+			// accept deploys to local repositories
+			router.attach("/m2/" + folder, new UploadFilter(context, m2, config, lucene, folder));
+		} else {
+			router.attach("/m2/" + folder, m2);
+		}
 		
 		config.getArtifactRoot(folder).mkdirs();
 	}
@@ -160,17 +243,49 @@ public class MoxieProxy extends Application {
 	public void start() throws Exception {		
 		super.start();
 		
-        // reindex all artifacts
-        lucene.reindex();
-
-        // setup asynchronous incremental updates
-        //
-        // We could sychronously update indexes on pom retrieval BUT we run
-        // into complications with parsing parent poms which we might not have
-        // at index time.  So instead we queue poms to index and process
-        // them after a modest delay most likely sufficient to have realized the
-        // retrieval of the parent poms.
-		executorService.scheduleAtFixedRate(lucene, 2, 2, TimeUnit.MINUTES);
+		// reindex all artifacts in the background, the scan walks every
+		// folder of every repository which must not delay startup
+		executorService.execute(new Runnable() {
+			@Override
+			public void run() {
+				lucene.reindex();
+
+				// setup asynchronous incremental updates
+				//
+				// We could sychronously update indexes on pom retrieval BUT we run
+				// into complications with parsing parent poms which we might not have
+				// at index time.  So instead we queue poms to index and process
+				// them in batches.  Poms whose parent has not been retrieved yet are
+				// held back by the executor until the parent arrives.  The batches
+				// start after the reindex so that they never update an index
+				// concurrently with the scan.
+				if (!executorService.isShutdown()) {
+					executorService.scheduleWithFixedDelay(lucene, 5, 5, TimeUnit.SECONDS);
+				}
+			}
+		});
+
+		// measure the repositories in the background for the dashboard
+		executorService.execute(new Runnable() {
+			@Override
+			public void run() {
+				for (String repository : getAccessibleRepositories()) {
+					config.measureRepositorySize(repository);
+				}
+			}
+		});
+
+		// refresh the near-real-time searchers
+		executorService.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				lucene.refresh();
+			}
+		}, 5, 5, TimeUnit.SECONDS);
+
+		// evict cold artifacts of proxied repositories which exceed their quota
+		executorService.scheduleWithFixedDelay(new CacheEvictor(config, lucene, tracker, metrics), 1,
+				EVICTION_INTERVAL, TimeUnit.MINUTES);
 
 		// start the proxy server
 		if (config.isProxyEnabled()) {
@@ -187,12 +302,33 @@ public class MoxieProxy extends Application {
 		super.stop();
 		
 		executorService.shutdown();
+		sync.shutdown();
 		proxy.shutdown();
+		lucene.close();
+		tracker.save();
 	}
 	
+	/**
+	 * Returns the shared Freemarker configuration which holds the parsed
+	 * templates of the pages and of the error pages.
+	 * 
+	 * @return the configuration, null until the application has started
+	 */
 	public Configuration getFreemarkerConfiguration() {
 		return configuration;
 	}
+
+	public PageCache getPageCache() {
+		return pageCache;
+	}
+
+	public ProxyMetrics getMetrics() {
+		return metrics;
+	}
+
+	public SyncManager getSyncManager() {
+		return sync;
+	}
 	
 	public ProxyConfig getProxyConfig() {
 		return config;
@@ -232,34 +368,64 @@ public class MoxieProxy extends Application {
 	public List<SearchResult> search(String query, int page, int pageSize) {
 		return lucene.search(query, page, pageSize, getAccessibleRepositories());
 	}
+
+	/**
+	 * Finds the repository folders of dependencies in the accessible
+	 * repositories.
+	 * 
+	 * @param dependencies
+	 * @return the links of the dependencies which were found
+	 */
+	public List<DependencyLink> find(Collection<Dependency> dependencies) {
+		return lucene.find(dependencies, getAccessibleRepositories());
+	}
+
+	/**
+	 * Searches the accessible repositories for the artifacts which contain a
+	 * class.
+	 * 
+	 * @param className
+	 *            a simple or fully-qualified class name
+	 * @param page
+	 *            the page number to retrieve. page is 1-indexed.
+	 * @param pageSize
+	 *            the number of elements to return for this page
+	 * @return a list of SearchResults, newest first
+	 */
+	public List<SearchResult> searchClasses(String className, int page, int pageSize) {
+		return lucene.searchClasses(className, page, pageSize, getAccessibleRepositories());
+	}
+
+	/**
+	 * Suggests artifact coordinates for partially typed search text.
+	 * 
+	 * @param text
+	 * @param count
+	 *            the maximum number of suggestions
+	 * @return a list of coordinates in order from highest to the lowest score
+	 */
+	public List<String> suggest(String text, int count) {
+		return lucene.suggest(text, count, getAccessibleRepositories());
+	}
 	
 	public List<SearchResult> getRecentArtifacts(String repository, int page, int pageSize) {
-		SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
-		Calendar c = Calendar.getInstance();
-		c.add(Calendar.DATE, 1);
-		String to = df.format(c.getTime());
-		c.add(Calendar.DATE, -180);
-		String from = df.format(c.getTime());
-
-		String query = MessageFormat.format("date:[{0} TO {1}] AND NOT packaging:pom", from, to);
-		
-		List<SearchResult> list;
 		if (StringUtils.isEmpty(repository)) {
 			// all accessible repositories
-			list = lucene.search(query, page, pageSize, getAccessibleRepositories());
+			return lucene.getRecentArtifacts(getAccessibleRepositories(), page, pageSize);
 		} else {
 			// specified repository
-			list = lucene.search(query, page, pageSize, repository);
+			return lucene.getRecentArtifacts(Arrays.asList(repository), page, pageSize);
 		}
-		Collections.sort(list);
-		return list;
 	}
 	
 	public int getArtifactCount(String repository) {
-		List<SearchResult> list = lucene.search("*", 1, 0, repository);
-		return list.size();
+		return lucene.getArtifactCount(repository);
 	}
 	
+	/**
+	 * Returns the formatted size of the repository or null while the
+	 * repository is measured.
+	 */
 	public String getRepositorySize(String repository) {
 		return config.getRepositorySize(repository);
 	}
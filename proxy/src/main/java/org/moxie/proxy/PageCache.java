@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of rendered pages. A page is validated by the last modified
+ * date of its source file or folder and by the config generation, so a
+ * changed folder or a reloaded config invalidates the page. The least
+ * recently used page is dropped when the cache is full.
+ *
+ * @author James Moger
+ *
+ */
+public class PageCache {
+
+	private final Map<String, Page> pages;
+
+	public PageCache(final int capacity) {
+		this.pages = new LinkedHashMap<String, Page>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached page, if it is still valid.
+	 *
+	 * @param key
+	 * @param lastModified
+	 *            the last modified date of the page source
+	 * @param generation
+	 *            the config generation
+	 * @return the page or null
+	 */
+	public synchronized Page get(String key, long lastModified, long generation) {
+		Page page = pages.get(key);
+		if (page == null) {
+			return null;
+		}
+		if (page.lastModified != lastModified || page.generation != generation) {
+			pages.remove(key);
+			return null;
+		}
+		return page;
+	}
+
+	/**
+	 * Caches a rendered page.
+	 *
+	 * @param key
+	 * @param lastModified
+	 *            the last modified date of the page source
+	 * @param generation
+	 *            the config generation
+	 * @param content
+	 * @return the cached page
+	 */
+	public synchronized Page put(String key, long lastModified, long generation, String content) {
+		Page page = new Page(lastModified, generation, content);
+		pages.put(key, page);
+		return page;
+	}
+
+	public synchronized void clear() {
+		pages.clear();
+	}
+
+	public static class Page {
+
+		public final long lastModified;
+
+		public final long generation;
+
+		public final String content;
+
+		public final String etag;
+
+		Page(long lastModified, long generation, String content) {
+			this.lastModified = lastModified;
+			this.generation = generation;
+			this.content = content;
+			this.etag = Long.toHexString(lastModified) + "-" + Long.toHexString(generation) + "-"
+					+ Integer.toHexString(content.hashCode());
+		}
+	}
+}
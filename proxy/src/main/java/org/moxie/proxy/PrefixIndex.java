@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.moxie.Constants;
+import org.moxie.IMavenCache;
+
+/**
+ * Incrementally maintains the prefixes indexes used by smart Maven clients to
+ * route their requests.
+ * <p>
+ * The prefixes of the indexed poms are added to an in-memory set per
+ * repository. Additions only mark the repository dirty, the index files are
+ * written by {@link #flush()} which the Lucene executor calls once per batch.
+ * An index file is merged with its current content, so prefixes written by
+ * other tools are retained, and replaced atomically.
+ *
+ * @author James Moger
+ *
+ */
+public class PrefixIndex {
+
+	private static final String META = "/.meta";
+
+	private final Logger logger = Logger.getLogger(PrefixIndex.class.getSimpleName());
+
+	private final ProxyConfig config;
+
+	private final ConcurrentMap<String, Set<String>> repositories;
+
+	private final Set<String> dirty;
+
+	public PrefixIndex(ProxyConfig config) {
+		this.config = config;
+		this.repositories = new ConcurrentHashMap<String, Set<String>>();
+		this.dirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	}
+
+	/**
+	 * Returns the routing prefix of a groupId, i.e. its first two segments.
+	 *
+	 * @param groupId
+	 * @return the prefix
+	 */
+	public static String getPrefix(String groupId) {
+		String [] chunks = groupId.split("\\.");
+		if (chunks.length < 2) {
+			return "/" + chunks[0];
+		}
+		return "/" + chunks[0] + "/" + chunks[1];
+	}
+
+	/**
+	 * Returns true if the prefixes index file of the repository exists.
+	 *
+	 * @param repository
+	 * @return true if the index exists
+	 */
+	public boolean exists(String repository) {
+		return getFile(repository).exists();
+	}
+
+	/**
+	 * Adds the prefix of a groupId to the repository index. This is cheap if
+	 * the prefix is already known.
+	 *
+	 * @param repository
+	 * @param groupId
+	 */
+	public void add(String repository, String groupId) {
+		if (repository == null || groupId == null) {
+			return;
+		}
+		if (getPrefixes(repository).add(getPrefix(groupId))) {
+			dirty.add(repository);
+		}
+	}
+
+	/**
+	 * Writes the index files of the repositories with new prefixes.
+	 */
+	public void flush() {
+		for (String repository : dirty) {
+			dirty.remove(repository);
+			try {
+				write(repository);
+			} catch (IOException e) {
+				dirty.add(repository);
+				logger.log(Level.WARNING, "Failed to write prefixes index for " + repository, e);
+			}
+		}
+	}
+
+	private Set<String> getPrefixes(String repository) {
+		Set<String> prefixes = repositories.get(repository);
+		if (prefixes == null) {
+			Set<String> loaded = new ConcurrentSkipListSet<String>(config.getMavenCache(repository).getPrefixes());
+			loaded.add(META);
+			prefixes = repositories.putIfAbsent(repository, loaded);
+			if (prefixes == null) {
+				prefixes = loaded;
+				if (!exists(repository)) {
+					dirty.add(repository);
+				}
+			}
+		}
+		return prefixes;
+	}
+
+	private File getFile(String repository) {
+		return new File(config.getMavenCache(repository).getRootFolder(), Constants.PREFIXES);
+	}
+
+	private void write(String repository) throws IOException {
+		IMavenCache cache = config.getMavenCache(repository);
+		Set<String> prefixes = new TreeSet<String>(cache.getPrefixes());
+		prefixes.addAll(getPrefixes(repository));
+
+		StringBuilder sb = new StringBuilder();
+		for (String prefix : prefixes) {
+			sb.append(prefix).append('\n');
+		}
+
+		File file = getFile(repository);
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		Files.write(tmp.toPath(), sb.toString().getBytes("UTF-8"));
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Character trie which matches a string against a set of prefix rules in a
+ * single pass. When several prefixes match, the rule which was added first
+ * wins, which preserves the semantics of walking an ordered rule list and
+ * returning the first rule whose prefix matches.
+ * <p>
+ * Instances are built once and are read-only afterwards, so they may be
+ * shared by concurrent request threads.
+ *
+ * @author James Moger
+ *
+ * @param <T>
+ */
+public class PrefixMatcher<T> {
+
+	private final Node<T> root = new Node<T>();
+
+	private int size;
+
+	/**
+	 * Adds a prefix rule. If the prefix has already been added, the earlier
+	 * rule is retained.
+	 *
+	 * @param prefix
+	 * @param value
+	 */
+	public void add(String prefix, T value) {
+		Node<T> node = root;
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = prefix.charAt(i);
+			if (node.children == null) {
+				node.children = new HashMap<Character, Node<T>>();
+			}
+			Node<T> child = node.children.get(c);
+			if (child == null) {
+				child = new Node<T>();
+				node.children.put(c, child);
+			}
+			node = child;
+		}
+		if (node.value == null) {
+			node.value = value;
+			node.order = size;
+		}
+		size++;
+	}
+
+	/**
+	 * Returns the first added rule whose prefix matches the string.
+	 *
+	 * @param value
+	 * @return the matching rule or null
+	 */
+	public T match(String value) {
+		Node<T> node = root;
+		Node<T> match = root.value == null ? null : root;
+		for (int i = 0; i < value.length() && node.children != null; i++) {
+			node = node.children.get(value.charAt(i));
+			if (node == null) {
+				break;
+			}
+			if (node.value != null && (match == null || node.order < match.order)) {
+				match = node;
+			}
+		}
+		return match == null ? null : match.value;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private static class Node<T> {
+		Map<Character, Node<T>> children;
+		T value;
+		int order;
+	}
+}
@@ -27,10 +27,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.moxie.Dependency;
 import org.moxie.IMavenCache;
 import org.moxie.MavenCache;
 import org.moxie.MoxieCache;
@@ -63,18 +64,33 @@ public class ProxyConfig {
 	private String dateFormat;
 	private int atomCount;
 	private int searchCount;
+	private int metadataMaxAge;
+	private int staleWhileRevalidate;
+	private int prefetchDepth;
+	private int prefetchThreads;
+	private int syncThreads;
+	private boolean allowUploads;
+	private boolean allowSync;
+	private int repositoryQuota;
+	private boolean compressResponses;
 	private String keystorePassword;
         private String userAgent;
 
 	private List<String> localRepositories;
 	private List<RemoteRepository> remoteRepositories;
 	private Map<String, RemoteRepository> remoteRepositoryLookup;
-	private Map<String, String> repositorySizeCache;
+	private Map<String, RepositorySize> repositorySizeCache;
+	private Map<String, Integer> metadataMaxAges;
+	private Map<String, Integer> staleWhileRevalidates;
+	private Map<String, Integer> repositoryQuotas;
 
 	private List<Proxy> proxies;
 	private List<Redirect> redirects;
 	private List<AllowDeny> allowDeny;	
 	
+	private volatile Routes routes;
+	private final Map<String, Proxy> proxyLookup;
+
 	private MoxieCache moxieCache;
 
 	public ProxyConfig() {
@@ -90,9 +106,20 @@ public class ProxyConfig {
 		localRepositories = Collections.emptyList();
 		remoteRepositories = Collections.emptyList();
 		remoteRepositoryLookup = new HashMap<String, RemoteRepository>();
-		repositorySizeCache = new ConcurrentHashMap<String, String>();
+		repositorySizeCache = new ConcurrentHashMap<String, RepositorySize>();
+		proxyLookup = new ConcurrentHashMap<String, Proxy>();
+		routes = new Routes();
 		atomCount = 50;
 		searchCount = 50;
+		metadataMaxAge = 300;
+		staleWhileRevalidate = 3600;
+		prefetchDepth = 0;
+		prefetchThreads = 2;
+		syncThreads = 4;
+		compressResponses = true;
+		metadataMaxAges = new ConcurrentHashMap<String, Integer>();
+		staleWhileRevalidates = new ConcurrentHashMap<String, Integer>();
+		repositoryQuotas = new ConcurrentHashMap<String, Integer>();
 		keystorePassword = "";
 		userAgent = "";
 	}
@@ -121,6 +148,8 @@ public class ProxyConfig {
 		
 		// default ssl keystore password
 		keystorePassword = "moxieproxy";
+
+		compileRoutes();
 	}
 
 	public void parse(File file) {
@@ -148,6 +177,11 @@ public class ProxyConfig {
 					bindAddresses = map.getStrings("bindAddresses", bindAddresses);
 					keystorePassword = map.getString("keystorePassword", keystorePassword);
 					userAgent = map.getString("userAgent", userAgent);
+					prefetchThreads = map.getInt("prefetchThreads", prefetchThreads);
+					syncThreads = map.getInt("syncThreads", syncThreads);
+					allowUploads = map.getBoolean("allowUploads", allowUploads);
+					allowSync = map.getBoolean("allowSync", allowSync);
+					compressResponses = map.getBoolean("compressResponses", compressResponses);
 					moxieRoot = new File(map.getString("rootFolder", "moxie"));
 					setMoxieRoot(moxieRoot);
 					localRepositories = map.getStrings("localRepositories", localRepositories);
@@ -166,12 +200,43 @@ public class ProxyConfig {
 				allowDeny = parseAllowDeny(map);
 				atomCount = map.getInt("atomCount", atomCount);
 				searchCount = map.getInt("searchCount", searchCount);
+				compileRoutes();
+				metadataMaxAge = map.getInt("metadataMaxAge", metadataMaxAge);
+				staleWhileRevalidate = map.getInt("staleWhileRevalidate", staleWhileRevalidate);
+				parseFreshness(map);
+				prefetchDepth = map.getInt("prefetchDepth", prefetchDepth);
+				repositoryQuota = map.getInt("repositoryQuota", repositoryQuota);
+				parseQuotas(map);
 			} catch (Exception e) {
 				log.log(Level.SEVERE, "failed to parse " + configFile, e);
 			}
 		}
 	}
 
+	/**
+	 * Compiles the redirect, allow/deny and remote repository rules into
+	 * prefix lookup tables so that a request is routed with a single pass over
+	 * its url, regardless of the number of rules and repositories.
+	 */
+	synchronized void compileRoutes() {
+		Routes compiled = new Routes();
+		for (Redirect redirect : redirects) {
+			compiled.redirects.add(redirect.getFrom(), redirect);
+		}
+		for (AllowDeny rule : allowDeny) {
+			compiled.allowDeny.add(rule.getURL(), rule);
+		}
+		for (RemoteRepository repository : remoteRepositories) {
+			File folder = new File(remoteArtifactsRoot, StringUtils.urlToFolder(repository.url));
+			RemoteRoute route = new RemoteRoute(repository, folder);
+			compiled.remoteUrls.add(repository.url, route);
+			compiled.remoteFolders.add(folder.getAbsolutePath(), route);
+			compiled.remoteIds.put(repository.id, route);
+		}
+		routes = compiled;
+		proxyLookup.clear();
+	}
+
 	List<RemoteRepository> parseRemoteRepositories(MaxmlMap map) {
 		List<RemoteRepository> remotes = new ArrayList<RemoteRepository>();
 		if (map.containsKey("remoteRepositories")) {
@@ -191,6 +256,39 @@ public class ProxyConfig {
 		return remotes;
 	}
 	
+	void parseFreshness(MaxmlMap map) {
+		metadataMaxAges.clear();
+		staleWhileRevalidates.clear();
+		if (map.containsKey("remoteRepositories")) {
+			for (Object o : map.getList("remoteRepositories", Collections.emptyList())) {
+				MaxmlMap repoMap = (MaxmlMap) o;
+				String id = repoMap.getString("id", null);
+				if (id == null) {
+					continue;
+				}
+				if (repoMap.containsKey("metadataMaxAge")) {
+					metadataMaxAges.put(id, repoMap.getInt("metadataMaxAge", metadataMaxAge));
+				}
+				if (repoMap.containsKey("staleWhileRevalidate")) {
+					staleWhileRevalidates.put(id, repoMap.getInt("staleWhileRevalidate", staleWhileRevalidate));
+				}
+			}
+		}
+	}
+
+	void parseQuotas(MaxmlMap map) {
+		repositoryQuotas.clear();
+		if (map.containsKey("remoteRepositories")) {
+			for (Object o : map.getList("remoteRepositories", Collections.emptyList())) {
+				MaxmlMap repoMap = (MaxmlMap) o;
+				String id = repoMap.getString("id", null);
+				if (id != null && repoMap.containsKey("quota")) {
+					repositoryQuotas.put(id, repoMap.getInt("quota", repositoryQuota));
+				}
+			}
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	List<Proxy> parseProxies(MaxmlMap map) {
 		List<Proxy> list = new ArrayList<Proxy>();
@@ -258,6 +356,106 @@ public class ProxyConfig {
 		return searchCount;
 	}
 
+	/**
+	 * Returns the number of seconds that a cached snapshot or metadata file of
+	 * the repository is considered fresh and is served without contacting the
+	 * upstream repository.
+	 * 
+	 * @param repository
+	 * @return the freshness window in seconds
+	 */
+	public int getMetadataMaxAge(String repository) {
+		if (repository != null && metadataMaxAges.containsKey(repository)) {
+			return metadataMaxAges.get(repository);
+		}
+		return metadataMaxAge;
+	}
+
+	/**
+	 * Returns the number of seconds past the freshness window during which a
+	 * stale snapshot or metadata file is served while it is revalidated in the
+	 * background.
+	 * 
+	 * @param repository
+	 * @return the stale window in seconds
+	 */
+	public int getStaleWhileRevalidate(String repository) {
+		if (repository != null && staleWhileRevalidates.containsKey(repository)) {
+			return staleWhileRevalidates.get(repository);
+		}
+		return staleWhileRevalidate;
+	}
+
+	/**
+	 * Returns the depth of the dependency graph which is prefetched when a POM
+	 * is retrieved from a remote repository. A depth of 0 disables
+	 * prefetching.
+	 * 
+	 * @return the prefetch depth
+	 */
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	public int getPrefetchThreads() {
+		return prefetchThreads;
+	}
+
+	/**
+	 * Returns the number of concurrent downloads of a sync job.
+	 */
+	public int getSyncThreads() {
+		return syncThreads;
+	}
+
+	/**
+	 * Returns true if artifacts may be deployed to the local repositories
+	 * with PUT requests.
+	 * 
+	 * @return true if uploads are enabled
+	 */
+	public boolean isAllowUploads() {
+		return allowUploads;
+	}
+
+	/**
+	 * Returns true if sync jobs may be started from the sync page.
+	 * 
+	 * @return true if the sync page is enabled
+	 */
+	public boolean isAllowSync() {
+		return allowSync;
+	}
+
+	/**
+	 * Returns the maximum size of a proxied repository. The least recently
+	 * used artifacts are evicted when a repository exceeds its quota. Local
+	 * repositories have no quota.
+	 * 
+	 * @param repository
+	 * @return the quota in bytes, 0 if the repository size is unlimited
+	 */
+	public long getRepositoryQuota(String repository) {
+		if (!isRemoteRepository(repository)) {
+			return 0;
+		}
+		Integer megabytes = repositoryQuotas.get(repository);
+		if (megabytes == null) {
+			megabytes = repositoryQuota;
+		}
+		return Math.max(0, megabytes) * 1024L * 1024L;
+	}
+
+	/**
+	 * Returns true if text responses should be gzip compressed for clients
+	 * which accept gzip content-coding.
+	 * 
+	 * @return true if response compression is enabled
+	 */
+	public boolean isCompressResponses() {
+		return compressResponses;
+	}
+
 	public int getHttpPort() {
 		return httpPort;
 	}
@@ -310,6 +508,16 @@ public class ProxyConfig {
 		return dateFormat;
 	}
 
+	/**
+	 * Returns the last modified date of the loaded config file. This changes
+	 * whenever the config is reloaded.
+	 * 
+	 * @return the config last modified date
+	 */
+	public long getLastModified() {
+		return configLastModified;
+	}
+
 	public String getKeystorePassword() {
 		return keystorePassword;
 	}
@@ -330,6 +538,7 @@ public class ProxyConfig {
 		this.moxieRoot = val;
 		localArtifactsRoot = new File(moxieRoot, org.moxie.Constants.LOCAL);
 		remoteArtifactsRoot = new File(moxieRoot, org.moxie.Constants.REMOTE);
+		compileRoutes();
 	}
 
 	public File getArtifactRoot(String relativePath) {
@@ -347,6 +556,10 @@ public class ProxyConfig {
 
 		if (remoteRepositoryLookup.containsKey(repo)) {
 			RemoteRepository repository = remoteRepositoryLookup.get(repo);
+			RemoteRoute route = routes.remoteIds.get(repository.id);
+			if (route != null) {
+				return route.folder;
+			}
 			return new File(remoteArtifactsRoot, StringUtils.urlToFolder(repository.url));			
 		}
 		return new File(localArtifactsRoot, repo);
@@ -361,37 +574,29 @@ public class ProxyConfig {
 	}
 	
 	public String getRepositoryId(File artifactFile) {
-		for (RemoteRepository repository : remoteRepositories) {
-			String remote = StringUtils.urlToFolder(repository.url.toString());
-			File remoteFolder = new File(remoteArtifactsRoot, remote);
-			if (artifactFile.getAbsolutePath().startsWith(remoteFolder.getAbsolutePath())) {
-				return repository.id;
-			}
+		RemoteRoute route = routes.remoteFolders.match(artifactFile.getAbsolutePath());
+		if (route == null) {
+			return null;
 		}
-		return null;
+		return route.repository.id;
 	}
 	
 	public String getRepositoryId(URL artifactUrl) {
-		String url = artifactUrl.toExternalForm();
-		for (RemoteRepository repository : remoteRepositories) {
-			if (url.startsWith(repository.url)) {
-				return repository.id;
-			}
+		RemoteRoute route = routes.remoteUrls.match(artifactUrl.toExternalForm());
+		if (route == null) {
+			return null;
 		}
-		return null;
+		return route.repository.id;
 	}
 	
 	public File getRemoteArtifact(URL artifactUrl) {
 		String url = artifactUrl.toExternalForm();
-		for (RemoteRepository repository : remoteRepositories) {
-			if (url.startsWith(repository.url)) {
-				String remote = StringUtils.urlToFolder(repository.url.toString());
-				File remoteFolder = new File(remoteArtifactsRoot, remote);
-				String path = StringUtils.getRelativePath(repository.url, url);
-				return new File(remoteFolder, path);
-			}
+		RemoteRoute route = routes.remoteUrls.match(url);
+		if (route == null) {
+			return null;
 		}
-		return null;
+		String path = StringUtils.getRelativePath(route.repository.url, url);
+		return new File(route.folder, path);
 	}
 	
 	public MoxieCache getMoxieCache() {
@@ -416,39 +621,13 @@ public class ProxyConfig {
 		}
 		if (remoteRepositoryLookup.containsKey(repository)) {
 			RemoteRepository repo = remoteRepositoryLookup.get(repository);
-			String folder = StringUtils.urlToFolder(repo.url);
-			File file = new File(remoteArtifactsRoot, folder);
+			RemoteRoute route = routes.remoteIds.get(repo.id);
+			File file = route == null ? new File(remoteArtifactsRoot, StringUtils.urlToFolder(repo.url)) : route.folder;
 			return new MavenCache(file);
 		}
 		return null;
 	}
 
-	public DependencyLink find(Dependency dependency) {
-		String path = null;
-		for (String repository : localRepositories) {
-			File cacheRoot = new File(localArtifactsRoot, repository);
-			IMavenCache cache = new MavenCache(cacheRoot);
-			File file = cache.getArtifact(dependency, dependency.extension);
-			if (file != null && file.exists()) {				
-				path = repository + "/" + FileUtils.getRelativePath(cacheRoot, file.getParentFile());
-			}
-		}
-		
-		for (RemoteRepository repository : remoteRepositories) {
-			String folder = StringUtils.urlToFolder(repository.url);
-			File cacheRoot = new File(remoteArtifactsRoot, folder);
-			IMavenCache cache = new MavenCache(cacheRoot);
-			File file = cache.getArtifact(dependency, dependency.extension);
-			if (file != null && file.exists()) {
-				path = repository.id + "/" + FileUtils.getRelativePath(cacheRoot, file.getParentFile());
-			}
-		}
-		if (StringUtils.isEmpty(path)) {
-			return null;
-		}
-		return new DependencyLink(dependency.getCoordinates(), path);
-	}
-
 	public List<String> getLocalRepositories() {
 		return localRepositories;
 	}
@@ -457,19 +636,101 @@ public class ProxyConfig {
 		return remoteRepositories;
 	}
 	
+	/**
+	 * Returns the formatted size of the repository or null if the repository
+	 * has not been measured yet.
+	 * 
+	 * @param repository
+	 * @return the repository size or null
+	 */
 	public String getRepositorySize(String repository) {
-		if (!repositorySizeCache.containsKey(repository)) {
-			IMavenCache cache = getMavenCache(repository);
-			File folder = cache.getRootFolder();
-			long size = FileUtils.folderSize(folder);
-			String value = FileUtils.formatSize(size);
-			repositorySizeCache.put(repository, value);
+		if (!isRepositoryMeasured(repository)) {
+			return null;
+		}
+		return FileUtils.formatSize(getRepositoryBytes(repository));
+	}
+
+	/**
+	 * Returns the size of the repository in bytes. The repository folder is
+	 * measured once in the background by
+	 * {@link #measureRepositorySize(String)}, afterwards the size is
+	 * maintained by {@link #adjustRepositorySize(String, long)}. This never
+	 * walks the repository folder.
+	 * 
+	 * @param repository
+	 * @return the repository size in bytes, incomplete until the repository
+	 *         has been measured
+	 */
+	public long getRepositoryBytes(String repository) {
+		return getRepositorySizeHolder(repository).bytes.get();
+	}
+
+	/**
+	 * Returns true if the repository folder has been measured and
+	 * {@link #getRepositoryBytes(String)} is the size of the repository.
+	 * 
+	 * @param repository
+	 * @return true if the repository has been measured
+	 */
+	public boolean isRepositoryMeasured(String repository) {
+		return getRepositorySizeHolder(repository).measured;
+	}
+
+	/**
+	 * Measures the size of the repository folder, unless it has already been
+	 * measured. This walks the repository folder and must not be called by
+	 * request threads.
+	 * 
+	 * @param repository
+	 */
+	public void measureRepositorySize(String repository) {
+		RepositorySize size = getRepositorySizeHolder(repository);
+		if (!size.measuring.compareAndSet(false, true)) {
+			return;
 		}
-		return repositorySizeCache.get(repository);
+		IMavenCache cache = getMavenCache(repository);
+		if (cache != null) {
+			// the adjustments of concurrent writes have been accumulated
+			size.bytes.addAndGet(FileUtils.folderSize(cache.getRootFolder()));
+		}
+		size.measured = true;
+	}
+
+	/**
+	 * Adjusts the cached size of a repository after an artifact has been
+	 * written or deleted. Adjustments are accumulated while the repository is
+	 * measured.
+	 * 
+	 * @param repository
+	 * @param delta
+	 *            the change in bytes
+	 */
+	public void adjustRepositorySize(String repository, long delta) {
+		if (repository == null || delta == 0) {
+			return;
+		}
+		getRepositorySizeHolder(repository).bytes.addAndGet(delta);
 	}
-	
-	public void resetRepositorySize(String repository) {
-		repositorySizeCache.remove(repository);
+
+	private RepositorySize getRepositorySizeHolder(String repository) {
+		RepositorySize size = repositorySizeCache.get(repository);
+		if (size == null) {
+			RepositorySize unmeasured = new RepositorySize();
+			size = repositorySizeCache.putIfAbsent(repository, unmeasured);
+			if (size == null) {
+				size = unmeasured;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * The cached size of a repository.
+	 */
+	private static class RepositorySize {
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicBoolean measuring = new AtomicBoolean();
+		volatile boolean measured;
 	}
 
 	public List<Redirect> getRedirects() {
@@ -477,35 +738,34 @@ public class ProxyConfig {
 	}
 
 	public URL getRedirect(URL url) throws MalformedURLException {
-		String s = url.toString();
-
-		for (Redirect entry : getRedirects()) {
-			URL to = entry.getRedirectURL(s);
-			if (to != null) {
-				log.info("Redirecting request to " + to.toString());
-				return to;
-			}
+		Redirect redirect = routes.redirects.match(url.toString());
+		if (redirect != null) {
+			URL to = redirect.getRedirectURL(url.toString());
+			log.fine("Redirecting request to " + to.toString());
+			return to;
 		}
-
 		return url;
 	}
 
 	public boolean useProxy(URL url) {
-		for (Proxy proxy : proxies) {
-			if (proxy.active && proxy.matches(null, url.toExternalForm())) {
-				return true;
-			}
-		}
-		return false;
+		return getProxy(url) != null;
 	}
 
 	public Proxy getProxy(URL url) {
-		for (Proxy proxy : proxies) {
-			if (proxy.active && proxy.matches(null, url.toExternalForm())) {
-				return proxy;
+		// proxy rules match on the protocol and the host of the url
+		String key = url.getProtocol() + "://" + url.getHost();
+		Proxy proxy = proxyLookup.get(key);
+		if (proxy == null) {
+			proxy = NO_PROXY;
+			for (Proxy p : proxies) {
+				if (p.active && p.matches(null, url.toExternalForm())) {
+					proxy = p;
+					break;
+				}
 			}
+			proxyLookup.put(key, proxy);
 		}
-		return null;
+		return proxy == NO_PROXY ? null : proxy;
 	}
 
 	public List<AllowDeny> getAllowDeny() {
@@ -513,14 +773,38 @@ public class ProxyConfig {
 	}
 
 	public boolean isAllowed(URL url) {
-		String s = url.toString();
-		for (AllowDeny rule : getAllowDeny()) {
-			if (rule.matches(s)) {
-				log.info((rule.isAllowed() ? "Allowing" : "Denying") + " access to " + url
-						+ " because of config rule");
-				return rule.isAllowed();
-			}
+		AllowDeny rule = routes.allowDeny.match(url.toString());
+		if (rule != null) {
+			log.fine((rule.isAllowed() ? "Allowing" : "Denying") + " access to " + url
+					+ " because of config rule");
+			return rule.isAllowed();
 		}
 		return true;
 	}
+
+	private static final Proxy NO_PROXY = new Proxy();
+
+	/**
+	 * Compiled lookup tables for routing proxy requests.
+	 */
+	private static class Routes {
+		final PrefixMatcher<Redirect> redirects = new PrefixMatcher<Redirect>();
+		final PrefixMatcher<AllowDeny> allowDeny = new PrefixMatcher<AllowDeny>();
+		final PrefixMatcher<RemoteRoute> remoteUrls = new PrefixMatcher<RemoteRoute>();
+		final PrefixMatcher<RemoteRoute> remoteFolders = new PrefixMatcher<RemoteRoute>();
+		final Map<String, RemoteRoute> remoteIds = new HashMap<String, RemoteRoute>();
+	}
+
+	/**
+	 * A remote repository and its local cache folder.
+	 */
+	private static class RemoteRoute {
+		final RemoteRepository repository;
+		final File folder;
+
+		RemoteRoute(RemoteRepository repository, File folder) {
+			this.repository = repository;
+			this.folder = folder;
+		}
+	}
 }
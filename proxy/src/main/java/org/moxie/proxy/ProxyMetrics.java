@@ -0,0 +1,347 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate counters and latency histograms of the proxy connector, the
+ * upstream downloads and the Lucene indexes.
+ * <p>
+ * Recording is lock-free and cheap enough for every request. The metrics are
+ * rendered in the Prometheus text exposition format by the /metrics
+ * resource.
+ *
+ * @author James Moger
+ *
+ */
+public class ProxyMetrics {
+
+	public static final String HIT = "hit";
+
+	public static final String STALE = "stale";
+
+	public static final String MISS = "miss";
+
+	public static final String OK = "ok";
+
+	public static final String NOT_MODIFIED = "not_modified";
+
+	public static final String FAILED = "failed";
+
+	public static final String ARTIFACTS = "artifacts";
+
+	public static final String CLASSES = "classes";
+
+	/**
+	 * Upper bounds, in seconds, of the latency histogram buckets.
+	 */
+	private static final double[] LATENCY_BUCKETS = { 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5,
+			10, 30, 60 };
+
+	/**
+	 * Supplies the current value of a gauge at scrape time.
+	 */
+	public interface Gauge {
+		long getValue();
+	}
+
+	private final ConcurrentMap<String, LongAdder> requests = new ConcurrentHashMap<String, LongAdder>();
+
+	private final ConcurrentMap<String, LongAdder> statuses = new ConcurrentHashMap<String, LongAdder>();
+
+	private final ConcurrentMap<String, LongAdder> cache = new ConcurrentHashMap<String, LongAdder>();
+
+	private final LongAdder bytesServed = new LongAdder();
+
+	private final Histogram requestLatency = new Histogram(LATENCY_BUCKETS);
+
+	private final ConcurrentMap<String, LongAdder> upstream = new ConcurrentHashMap<String, LongAdder>();
+
+	private final LongAdder upstreamBytes = new LongAdder();
+
+	private final LongAdder downloadsInFlight = new LongAdder();
+
+	private final Histogram upstreamLatency = new Histogram(LATENCY_BUCKETS);
+
+	private final ConcurrentMap<String, Gauge> indexQueues = new ConcurrentHashMap<String, Gauge>();
+
+	private final ConcurrentMap<String, Histogram> indexCommits = new ConcurrentHashMap<String, Histogram>();
+
+	private final LongAdder indexedPoms = new LongAdder();
+
+	private final LongAdder evictedFolders = new LongAdder();
+
+	private final LongAdder evictedBytes = new LongAdder();
+
+	private final long started = System.currentTimeMillis();
+
+	/**
+	 * Records a completed request of the proxy connector.
+	 *
+	 * @param method
+	 *            the http method name
+	 * @param status
+	 *            the http status code of the response
+	 * @param bytes
+	 *            the length of the transferred entity
+	 * @param nanos
+	 *            the time spent serving the request
+	 */
+	public void request(String method, int status, long bytes, long nanos) {
+		adder(requests, method).increment();
+		adder(statuses, String.valueOf(status)).increment();
+		bytesServed.add(bytes);
+		requestLatency.observe(nanos);
+	}
+
+	/**
+	 * Records whether a request was served from the local cache.
+	 *
+	 * @param result
+	 *            HIT, STALE or MISS
+	 */
+	public void cache(String result) {
+		adder(cache, result).increment();
+	}
+
+	/**
+	 * Records the start of an upstream download.
+	 */
+	public void downloadStarted() {
+		downloadsInFlight.increment();
+	}
+
+	/**
+	 * Records the end of an upstream download.
+	 *
+	 * @param result
+	 *            OK, NOT_MODIFIED or FAILED
+	 * @param bytes
+	 *            the number of bytes received
+	 * @param nanos
+	 *            the duration of the download
+	 */
+	public void downloadFinished(String result, long bytes, long nanos) {
+		downloadsInFlight.decrement();
+		adder(upstream, result).increment();
+		upstreamBytes.add(bytes);
+		upstreamLatency.observe(nanos);
+	}
+
+	/**
+	 * Registers the queue depth of an index.
+	 *
+	 * @param index
+	 *            ARTIFACTS or CLASSES
+	 * @param gauge
+	 */
+	public void registerIndexQueue(String index, Gauge gauge) {
+		indexQueues.put(index, gauge);
+	}
+
+	/**
+	 * Records an index commit.
+	 *
+	 * @param index
+	 *            ARTIFACTS or CLASSES
+	 * @param nanos
+	 *            the duration of the commit
+	 */
+	public void indexCommitted(String index, long nanos) {
+		Histogram histogram = indexCommits.get(index);
+		if (histogram == null) {
+			Histogram created = new Histogram(LATENCY_BUCKETS);
+			histogram = indexCommits.putIfAbsent(index, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		histogram.observe(nanos);
+	}
+
+	/**
+	 * Records the number of poms added to the artifact indexes.
+	 *
+	 * @param count
+	 */
+	public void indexed(int count) {
+		indexedPoms.add(count);
+	}
+
+	/**
+	 * Records artifact folders evicted from a proxied repository.
+	 *
+	 * @param folders
+	 *            the number of evicted folders
+	 * @param bytes
+	 *            the number of freed bytes
+	 */
+	public void evicted(int folders, long bytes) {
+		evictedFolders.add(folders);
+		evictedBytes.add(bytes);
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text exposition format.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Appendable out) throws IOException {
+		header(out, "moxie_uptime_seconds", "gauge", "Time since the proxy was started.");
+		sample(out, "moxie_uptime_seconds", null, (System.currentTimeMillis() - started) / 1000L);
+
+		header(out, "moxie_proxy_requests_total", "counter", "Requests received by the proxy connector.");
+		samples(out, "moxie_proxy_requests_total", "method", requests);
+
+		header(out, "moxie_proxy_responses_total", "counter", "Responses sent by the proxy connector.");
+		samples(out, "moxie_proxy_responses_total", "status", statuses);
+
+		header(out, "moxie_proxy_cache_requests_total", "counter",
+				"Artifact requests by local cache result (hit, stale, miss).");
+		samples(out, "moxie_proxy_cache_requests_total", "result", cache);
+
+		header(out, "moxie_proxy_served_bytes_total", "counter", "Entity bytes sent to proxy clients.");
+		sample(out, "moxie_proxy_served_bytes_total", null, bytesServed.sum());
+
+		header(out, "moxie_proxy_request_duration_seconds", "histogram", "Time spent serving proxy requests.");
+		requestLatency.write(out, "moxie_proxy_request_duration_seconds", null);
+
+		header(out, "moxie_upstream_downloads_in_flight", "gauge", "Downloads from upstream repositories in progress.");
+		sample(out, "moxie_upstream_downloads_in_flight", null, downloadsInFlight.sum());
+
+		header(out, "moxie_upstream_requests_total", "counter",
+				"Downloads from upstream repositories by result (ok, not_modified, failed).");
+		samples(out, "moxie_upstream_requests_total", "result", upstream);
+
+		header(out, "moxie_upstream_received_bytes_total", "counter", "Bytes downloaded from upstream repositories.");
+		sample(out, "moxie_upstream_received_bytes_total", null, upstreamBytes.sum());
+
+		header(out, "moxie_upstream_duration_seconds", "histogram", "Duration of downloads from upstream repositories.");
+		upstreamLatency.write(out, "moxie_upstream_duration_seconds", null);
+
+		header(out, "moxie_index_queue_depth", "gauge", "Artifacts waiting to be indexed.");
+		for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(indexQueues).entrySet()) {
+			sample(out, "moxie_index_queue_depth", label("index", entry.getKey()), entry.getValue().getValue());
+		}
+
+		header(out, "moxie_index_commit_duration_seconds", "histogram", "Duration of index commits.");
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(indexCommits).entrySet()) {
+			entry.getValue().write(out, "moxie_index_commit_duration_seconds", label("index", entry.getKey()));
+		}
+
+		header(out, "moxie_index_poms_total", "counter", "Poms incrementally added to the artifact indexes.");
+		sample(out, "moxie_index_poms_total", null, indexedPoms.sum());
+
+		header(out, "moxie_cache_evicted_folders_total", "counter", "Artifact folders evicted from proxied repositories.");
+		sample(out, "moxie_cache_evicted_folders_total", null, evictedFolders.sum());
+
+		header(out, "moxie_cache_evicted_bytes_total", "counter", "Bytes evicted from proxied repositories.");
+		sample(out, "moxie_cache_evicted_bytes_total", null, evictedBytes.sum());
+	}
+
+	private static LongAdder adder(ConcurrentMap<String, LongAdder> map, String key) {
+		LongAdder adder = map.get(key);
+		if (adder == null) {
+			LongAdder created = new LongAdder();
+			adder = map.putIfAbsent(key, created);
+			if (adder == null) {
+				adder = created;
+			}
+		}
+		return adder;
+	}
+
+	private static void header(Appendable out, String name, String type, String help) throws IOException {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void samples(Appendable out, String name, String label, Map<String, LongAdder> values)
+			throws IOException {
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(values).entrySet()) {
+			sample(out, name, label(label, entry.getKey()), entry.getValue().sum());
+		}
+	}
+
+	private static void sample(Appendable out, String name, String labels, Object value) throws IOException {
+		out.append(name);
+		if (labels != null) {
+			out.append('{').append(labels).append('}');
+		}
+		out.append(' ').append(String.valueOf(value)).append('\n');
+	}
+
+	private static String label(String name, String value) {
+		return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+	}
+
+	/**
+	 * Latency histogram with fixed bucket bounds. Each bucket counts the
+	 * observations which fall into it; the counts are accumulated when the
+	 * histogram is rendered.
+	 */
+	static class Histogram {
+
+		private final double[] bounds;
+
+		private final long[] limits;
+
+		private final LongAdder[] buckets;
+
+		private final LongAdder sum = new LongAdder();
+
+		Histogram(double[] bounds) {
+			this.bounds = bounds;
+			this.limits = new long[bounds.length];
+			this.buckets = new LongAdder[bounds.length + 1];
+			for (int i = 0; i < bounds.length; i++) {
+				limits[i] = (long) (bounds[i] * TimeUnit.SECONDS.toNanos(1));
+			}
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void observe(long nanos) {
+			int i = 0;
+			while (i < limits.length && nanos > limits[i]) {
+				i++;
+			}
+			buckets[i].increment();
+			sum.add(nanos);
+		}
+
+		void write(Appendable out, String name, String labels) throws IOException {
+			String prefix = labels == null ? "" : labels + ",";
+			long count = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				count += buckets[i].sum();
+				String le = i < bounds.length ? String.valueOf(bounds[i]) : "+Inf";
+				sample(out, name + "_bucket", prefix + label("le", le), count);
+			}
+			sample(out, name + "_sum", labels, sum.sum() / (double) TimeUnit.SECONDS.toNanos(1));
+			sample(out, name + "_count", labels, count);
+		}
+	}
+}
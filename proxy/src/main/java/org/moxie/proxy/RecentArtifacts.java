@@ -0,0 +1,313 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded per-repository lists of the most recently cached artifacts. The
+ * lists back the recent artifacts pages and the Atom feeds so that these
+ * never have to query the Lucene indexes.
+ *
+ * @author James Moger
+ *
+ */
+public class RecentArtifacts {
+
+	private final Logger logger = Logger.getLogger(RecentArtifacts.class.getSimpleName());
+
+	private final File file;
+
+	private final int capacity;
+
+	private final Map<String, Deque<Entry>> repositories;
+
+	private volatile boolean dirty;
+
+	public RecentArtifacts(File file, int capacity) {
+		this.file = file;
+		this.capacity = capacity;
+		this.repositories = new ConcurrentHashMap<String, Deque<Entry>>();
+	}
+
+	/**
+	 * Adds an artifact to the head of the repository list. An earlier entry
+	 * for the same coordinates is replaced and the oldest entry is dropped if
+	 * the list is full.
+	 *
+	 * @param repository
+	 * @param result
+	 */
+	public void add(String repository, SearchResult result) {
+		add(repository, new Entry(System.currentTimeMillis(), result));
+	}
+
+	private void add(String repository, Entry entry) {
+		Deque<Entry> list = getList(repository);
+		synchronized (list) {
+			String coordinates = entry.result.getCoordinates();
+			Iterator<Entry> itr = list.iterator();
+			while (itr.hasNext()) {
+				if (itr.next().result.getCoordinates().equals(coordinates)) {
+					itr.remove();
+					break;
+				}
+			}
+			list.addFirst(entry);
+			while (list.size() > capacity) {
+				list.removeLast();
+			}
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Seeds an empty repository list, e.g. from the repository index after
+	 * a full reindex. The results are expected from newest to oldest.
+	 *
+	 * @param repository
+	 * @param results
+	 */
+	public void seed(String repository, List<SearchResult> results) {
+		Deque<Entry> list = getList(repository);
+		synchronized (list) {
+			if (!list.isEmpty()) {
+				return;
+			}
+			for (SearchResult result : results) {
+				if (list.size() == capacity) {
+					break;
+				}
+				long date = result.date == null ? 0 : result.date.getTime();
+				list.addLast(new Entry(date, result));
+			}
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Removes an artifact, e.g. after it was evicted from the cache.
+	 *
+	 * @param repository
+	 * @param coordinates
+	 */
+	public void remove(String repository, String coordinates) {
+		Deque<Entry> list = repositories.get(repository);
+		if (list == null) {
+			return;
+		}
+		synchronized (list) {
+			Iterator<Entry> itr = list.iterator();
+			while (itr.hasNext()) {
+				if (itr.next().result.getCoordinates().equals(coordinates)) {
+					itr.remove();
+					dirty = true;
+					break;
+				}
+			}
+		}
+	}
+
+	public boolean isEmpty(String repository) {
+		Deque<Entry> list = repositories.get(repository);
+		return list == null || list.isEmpty();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns a page of the most recently cached artifacts of the specified
+	 * repositories, newest first.
+	 *
+	 * @param names
+	 * @param page
+	 *            the page number to retrieve. page is 1-indexed.
+	 * @param pageSize
+	 * @return a list of artifacts
+	 */
+	public List<SearchResult> get(Collection<String> names, int page, int pageSize) {
+		int offset = Math.max(0, (page - 1) * pageSize);
+		int limit = offset + pageSize;
+
+		// copy the heads of the lists, no list contributes more than limit
+		List<List<Entry>> lists = new ArrayList<List<Entry>>();
+		int total = 0;
+		for (String name : names) {
+			Deque<Entry> list = repositories.get(name);
+			if (list == null) {
+				continue;
+			}
+			List<Entry> copy = new ArrayList<Entry>(Math.min(limit, capacity));
+			synchronized (list) {
+				total += list.size();
+				for (Entry entry : list) {
+					if (copy.size() == limit) {
+						break;
+					}
+					copy.add(entry.copy(name));
+				}
+			}
+			lists.add(copy);
+		}
+
+		// merge the lists by cache date
+		List<SearchResult> results = new ArrayList<SearchResult>();
+		int [] positions = new int[lists.size()];
+		for (int i = 0; i < limit; i++) {
+			int next = -1;
+			for (int j = 0; j < lists.size(); j++) {
+				List<Entry> list = lists.get(j);
+				if (positions[j] < list.size()
+						&& (next < 0 || list.get(positions[j]).cached > lists.get(next).get(positions[next]).cached)) {
+					next = j;
+				}
+			}
+			if (next < 0) {
+				break;
+			}
+			SearchResult result = lists.get(next).get(positions[next]++).result;
+			if (i >= offset) {
+				result.hitId = i + 1;
+				result.totalHits = total;
+				results.add(result);
+			}
+		}
+		return results;
+	}
+
+	private Deque<Entry> getList(String repository) {
+		Deque<Entry> list = repositories.get(repository);
+		if (list == null) {
+			synchronized (repositories) {
+				list = repositories.get(repository);
+				if (list == null) {
+					list = new ArrayDeque<Entry>();
+					repositories.put(repository, list);
+				}
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Loads the persisted lists.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void load() {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				Map<String, ArrayList<Entry>> map = (Map<String, ArrayList<Entry>>) is.readObject();
+				for (Map.Entry<String, ArrayList<Entry>> entry : map.entrySet()) {
+					Deque<Entry> list = getList(entry.getKey());
+					synchronized (list) {
+						list.clear();
+						list.addAll(entry.getValue());
+					}
+				}
+			} finally {
+				is.close();
+			}
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to load recent artifacts from " + file, e);
+		}
+	}
+
+	/**
+	 * Persists the lists, if they have changed.
+	 */
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		dirty = false;
+		HashMap<String, ArrayList<Entry>> map = new HashMap<String, ArrayList<Entry>>();
+		for (Map.Entry<String, Deque<Entry>> entry : repositories.entrySet()) {
+			Deque<Entry> list = entry.getValue();
+			synchronized (list) {
+				map.put(entry.getKey(), new ArrayList<Entry>(list));
+			}
+		}
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				os.writeObject(map);
+			} finally {
+				os.close();
+			}
+			file.delete();
+			tmp.renameTo(file);
+		} catch (IOException e) {
+			dirty = true;
+			logger.log(Level.WARNING, "Failed to save recent artifacts to " + file, e);
+		}
+	}
+
+	private static class Entry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final long cached;
+		final SearchResult result;
+
+		Entry(long cached, SearchResult result) {
+			this.cached = cached;
+			this.result = result;
+		}
+
+		/**
+		 * Returns a copy whose result may be modified by the caller.
+		 */
+		Entry copy(String repository) {
+			SearchResult r = new SearchResult();
+			r.date = result.date;
+			r.groupId = result.groupId;
+			r.artifactId = result.artifactId;
+			r.version = result.version;
+			r.name = result.name;
+			r.description = result.description;
+			r.packaging = result.packaging;
+			r.repository = repository;
+			return new Entry(cached, r);
+		}
+	}
+}
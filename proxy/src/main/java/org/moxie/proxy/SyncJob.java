@@ -0,0 +1,713 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.moxie.Constants;
+import org.moxie.Dependency;
+import org.moxie.IMavenCache;
+import org.moxie.Metadata;
+import org.moxie.MetadataReader;
+import org.moxie.RemoteRepository;
+import org.moxie.proxy.connection.DownloadFailed;
+import org.moxie.proxy.connection.ProxyDownload;
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+
+/**
+ * A sync job pre-seeds the cache of a proxied repository.
+ * <p>
+ * The artifacts to retrieve are specified by a list of coordinates, a Gradle
+ * dependency lockfile or the url of the prefixes.txt of the remote
+ * repository. The folders of the prefixes are crawled for artifact metadata
+ * and the latest release of each artifact is retrieved. For each artifact the
+ * pom, the artifact and their checksums are retrieved with
+ * {@link ProxyDownload}, exactly as if a client had requested them through
+ * the proxy, and queued for indexing. Files which are already cached are not
+ * retrieved again.
+ * <p>
+ * Downloads and folder listings are executed by the shared sync executor
+ * which bounds the concurrency of the job.
+ * <p>
+ * Only files of the remote repository are retrieved. The prefixes must be
+ * specified by a path relative to the repository url and paths or
+ * coordinates with . or .. segments are rejected so that a job can not write
+ * outside the repository cache.
+ *
+ * @author James Moger
+ *
+ */
+public class SyncJob implements Runnable {
+
+	public static final Logger log = Logger.getLogger(SyncJob.class.getSimpleName());
+
+	public enum Source {
+		coordinates, lockfile, prefixes;
+
+		public static Source fromName(String name) {
+			for (Source source : values()) {
+				if (source.name().equalsIgnoreCase(name)) {
+					return source;
+				}
+			}
+			return null;
+		}
+	}
+
+	public enum State {
+		queued, running, finished, cancelled, failed
+	}
+
+	private static final int MAX_ERRORS = 50;
+
+	/**
+	 * Remote folders deeper than this below a prefix are not crawled.
+	 */
+	private static final int MAX_DEPTH = 12;
+
+	private static final Pattern HREF = Pattern.compile("href=\"([^\"]+)\"", Pattern.CASE_INSENSITIVE);
+
+	private static final String METADATA = "maven-metadata.xml";
+
+	private static final String [] CHECKSUMS = { ".sha1", ".md5" };
+
+	private enum Result {
+		CACHED, FETCHED, MISSING, FAILED
+	}
+
+	private final int id;
+
+	private final ProxyConfig config;
+
+	private final ProxyMetrics metrics;
+
+	private final LuceneExecutor lucene;
+
+	private final Executor executor;
+
+	private final RemoteRepository repository;
+
+	private final Source source;
+
+	private final String input;
+
+	private final Date created;
+
+	private final AtomicInteger total;
+
+	private final AtomicInteger completed;
+
+	private final AtomicInteger missing;
+
+	private final AtomicInteger failed;
+
+	private final AtomicInteger fetchedFiles;
+
+	private final AtomicInteger cachedFiles;
+
+	private final AtomicLong bytes;
+
+	private final AtomicInteger pending;
+
+	private final Set<String> crawled;
+
+	private final List<String> errors;
+
+	private volatile State state;
+
+	private volatile Date started;
+
+	private volatile Date finished;
+
+	public SyncJob(int id, ProxyConfig config, ProxyMetrics metrics, LuceneExecutor lucene, Executor executor,
+			RemoteRepository repository, Source source, String input) {
+		this.id = id;
+		this.config = config;
+		this.metrics = metrics;
+		this.lucene = lucene;
+		this.executor = executor;
+		this.repository = repository;
+		this.source = source;
+		this.input = input == null ? "" : input;
+		this.created = new Date();
+		this.total = new AtomicInteger();
+		this.completed = new AtomicInteger();
+		this.missing = new AtomicInteger();
+		this.failed = new AtomicInteger();
+		this.fetchedFiles = new AtomicInteger();
+		this.cachedFiles = new AtomicInteger();
+		this.bytes = new AtomicLong();
+		this.pending = new AtomicInteger();
+		this.crawled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.errors = new ArrayList<String>();
+		this.state = State.queued;
+	}
+
+	@Override
+	public void run() {
+		if (state != State.queued) {
+			// cancelled before it was started
+			return;
+		}
+		state = State.running;
+		started = new Date();
+		log.info(MessageFormat.format("sync job {0} of {1} from {2} started", id, repository.id, source));
+		try {
+			switch (source) {
+			case prefixes:
+				crawlPrefixes();
+				break;
+			default:
+				for (Dependency dependency : parseCoordinates(input, source == Source.lockfile)) {
+					submitArtifact(dependency);
+				}
+				break;
+			}
+			awaitPending();
+			if (state == State.running) {
+				state = State.finished;
+			}
+		} catch (Throwable t) {
+			log.log(Level.SEVERE, "sync job " + id + " failed", t);
+			error(t.getMessage());
+			state = State.failed;
+		} finally {
+			finished = new Date();
+			log.info(MessageFormat.format("sync job {0} of {1} {2}: {3} artifacts, {4} files retrieved ({5}), {6} cached, {7} missing, {8} failed",
+					id, repository.id, state, completed.get(), fetchedFiles.get(), FileUtils.formatSize(bytes.get()),
+					cachedFiles.get(), missing.get(), failed.get()));
+		}
+	}
+
+	/**
+	 * Cancels the job. Running downloads are completed, pending downloads
+	 * are skipped.
+	 */
+	public void cancel() {
+		if (isActive()) {
+			state = State.cancelled;
+		}
+	}
+
+	/**
+	 * Parses a list of coordinates or a Gradle lockfile. Blank lines and
+	 * comments are ignored.
+	 *
+	 * @param text
+	 * @param lockfile
+	 *            true if the text is a Gradle lockfile, i.e. each line is
+	 *            group:artifact:version=configurations
+	 * @return the dependencies
+	 */
+	List<Dependency> parseCoordinates(String text, boolean lockfile) {
+		Set<Dependency> dependencies = new LinkedHashSet<Dependency>();
+		for (String line : text.split("\n")) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			if (lockfile) {
+				if (line.startsWith("empty=")) {
+					continue;
+				}
+				if (line.indexOf('=') > -1) {
+					line = line.substring(0, line.indexOf('='));
+				}
+			}
+			Dependency dependency = new Dependency(line);
+			if (StringUtils.isEmpty(dependency.groupId) || StringUtils.isEmpty(dependency.artifactId)
+					|| StringUtils.isEmpty(dependency.version) || dependency.version.contains("${")
+					|| dependency.isMetaVersion()) {
+				failed.incrementAndGet();
+				error("Unresolvable coordinates " + line);
+				continue;
+			}
+			dependencies.add(dependency);
+		}
+		return new ArrayList<Dependency>(dependencies);
+	}
+
+	/**
+	 * Returns the url of the prefixes of a repository. The prefixes are
+	 * specified by a path relative to the repository url or by a url within
+	 * the repository.
+	 *
+	 * @param repository
+	 * @param input
+	 *            the path or the url of the prefixes, the default prefixes if
+	 *            empty
+	 * @return the url or null if the prefixes are not within the repository
+	 */
+	static String getPrefixesUrl(RemoteRepository repository, String input) {
+		String path = input == null ? "" : input.trim();
+		if (path.length() == 0) {
+			return StringUtils.makeUrl(repository.url, Constants.PREFIXES);
+		}
+		if (path.indexOf("://") > -1) {
+			String base = repository.url.endsWith("/") ? repository.url : (repository.url + "/");
+			if (!path.startsWith(base)) {
+				return null;
+			}
+			path = path.substring(base.length());
+		}
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		if (path.endsWith("/") || !isSafePath(path)) {
+			return null;
+		}
+		return StringUtils.makeUrl(repository.url, path);
+	}
+
+	/**
+	 * Returns true if the relative path has no empty, . or .. segments. A
+	 * trailing slash is allowed.
+	 *
+	 * @param path
+	 * @return true if the path is a safe relative path
+	 */
+	static boolean isSafePath(String path) {
+		if (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		if (path.length() == 0 || path.indexOf('\\') > -1 || path.indexOf(':') > -1 || path.indexOf('?') > -1
+				|| path.indexOf('#') > -1) {
+			return false;
+		}
+		for (String segment : path.split("/")) {
+			if (segment.length() == 0 || ".".equals(segment) || "..".equals(segment)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the coordinates of a dependency map to a path within the
+	 * repository.
+	 */
+	static boolean isSafe(Dependency dependency) {
+		String path = dependency.groupId.replace('.', '/') + "/" + dependency.artifactId + "/" + dependency.version;
+		return isSafePath(path) && isSafeName(dependency.classifier) && isSafeName(dependency.extension);
+	}
+
+	private static boolean isSafeName(String name) {
+		return StringUtils.isEmpty(name) || (name.indexOf('/') < 0 && name.indexOf('\\') < 0);
+	}
+
+	/**
+	 * Crawls the remote folders of the prefixes of the repository.
+	 */
+	private void crawlPrefixes() throws IOException, DownloadFailed {
+		String url = getPrefixesUrl(repository, input);
+		if (url == null) {
+			throw new IllegalArgumentException("The prefixes must be a path within " + repository.url);
+		}
+		File file = File.createTempFile("prefixes-", ".txt", getTempFolder());
+		try {
+			new ProxyDownload(config, metrics, new URL(url), file).download();
+			String content = FileUtils.readContent(file, "\n");
+			for (String line : content.split("\n")) {
+				String prefix = line.trim();
+				if (prefix.length() == 0 || prefix.startsWith("#") || prefix.startsWith("/.")) {
+					continue;
+				}
+				if (prefix.startsWith("/")) {
+					prefix = prefix.substring(1);
+				}
+				submitListing(prefix.endsWith("/") ? prefix : (prefix + "/"), 0);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private void submitListing(final String path, final int depth) {
+		if (!isSafePath(path) || path.startsWith(".") || path.contains("/.")) {
+			// traversal or hidden folders, e.g. .meta
+			error("Illegal path " + path);
+			return;
+		}
+		if (depth > MAX_DEPTH || !crawled.add(path)) {
+			return;
+		}
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				list(path, depth);
+			}
+		});
+	}
+
+	/**
+	 * Lists a remote folder. Folders with artifact metadata are artifact
+	 * folders, other folders are crawled.
+	 */
+	private void list(String path, int depth) {
+		List<String> names = new ArrayList<String>();
+		File file = null;
+		try {
+			file = File.createTempFile("listing-", ".html", getTempFolder());
+			new ProxyDownload(config, metrics, new URL(StringUtils.makeUrl(repository.url, path)), file).download();
+			Matcher m = HREF.matcher(FileUtils.readContent(file, "\n"));
+			while (m.find()) {
+				String name = m.group(1);
+				if (name.startsWith("./")) {
+					name = name.substring(2);
+				}
+				if (name.length() == 0 || name.startsWith(".") || name.startsWith("/") || name.startsWith("?")
+						|| name.startsWith("#") || name.contains(":")) {
+					// parent, absolute, sorting and external links
+					continue;
+				}
+				names.add(name);
+			}
+		} catch (DownloadFailed e) {
+			error(path + ": " + e.getMessage());
+			return;
+		} catch (IOException e) {
+			error(path + ": " + e.getMessage());
+			return;
+		} finally {
+			if (file != null) {
+				file.delete();
+			}
+		}
+
+		if (names.contains(METADATA)) {
+			submitMetadata(path + METADATA);
+			return;
+		}
+		for (String name : names) {
+			if (name.endsWith("/") && name.indexOf('/') == name.length() - 1) {
+				submitListing(path + name, depth + 1);
+			}
+		}
+	}
+
+	private void submitMetadata(final String path) {
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				File file = new File(getCache().getRootFolder(), path);
+				if (fetch(path, file) == Result.FAILED || !file.exists()) {
+					return;
+				}
+				Metadata metadata;
+				try {
+					metadata = MetadataReader.readMetadata(file);
+				} catch (Exception e) {
+					error(path + ": " + e.getMessage());
+					return;
+				}
+				String version = StringUtils.isEmpty(metadata.release) ? metadata.latest : metadata.release;
+				if (StringUtils.isEmpty(metadata.groupId) || StringUtils.isEmpty(metadata.artifactId)
+						|| StringUtils.isEmpty(version)) {
+					return;
+				}
+				submitArtifact(new Dependency(metadata.groupId + ":" + metadata.artifactId + ":" + version));
+			}
+		});
+	}
+
+	private void submitArtifact(final Dependency dependency) {
+		if (!isSafe(dependency)) {
+			failed.incrementAndGet();
+			error("Illegal coordinates " + dependency.getDetailedCoordinates());
+			return;
+		}
+		total.incrementAndGet();
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				syncArtifact(dependency);
+				completed.incrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the pom, the artifact and their checksums.
+	 */
+	private void syncArtifact(Dependency dependency) {
+		IMavenCache cache = getCache();
+		Dependency pomArtifact = dependency.getPomArtifact();
+		File pom = cache.getArtifact(pomArtifact, pomArtifact.extension);
+		Result result = fetchWithChecksums(cache, pom);
+		if (result == Result.MISSING) {
+			missing.incrementAndGet();
+			error("Missing " + dependency.getDetailedCoordinates());
+			return;
+		} else if (result == Result.FAILED) {
+			failed.incrementAndGet();
+			return;
+		} else if (result == Result.FETCHED) {
+			lucene.index(repository.id, pom);
+		}
+
+		if (Constants.POM.equals(dependency.extension)) {
+			return;
+		}
+		File artifact = cache.getArtifact(dependency, dependency.extension);
+		result = fetchWithChecksums(cache, artifact);
+		if (result == Result.MISSING) {
+			if (!StringUtils.isEmpty(dependency.classifier) || !"jar".equals(dependency.extension)) {
+				// the default jar is absent for pom packaging
+				missing.incrementAndGet();
+				error("Missing " + dependency.getDetailedCoordinates());
+			}
+		} else if (result == Result.FAILED) {
+			failed.incrementAndGet();
+		} else if (result == Result.FETCHED) {
+			lucene.indexClasses(repository.id, artifact);
+		}
+	}
+
+	private Result fetchWithChecksums(IMavenCache cache, File file) {
+		String path = FileUtils.getRelativePath(cache.getRootFolder(), file);
+		Result result = fetch(path, file);
+		if (result == Result.CACHED || result == Result.FETCHED) {
+			for (String checksum : CHECKSUMS) {
+				// checksums are optional
+				fetch(path + checksum, new File(file.getParentFile(), file.getName() + checksum));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieves a file from the remote repository, if it is not already
+	 * cached.
+	 */
+	private Result fetch(String path, File file) {
+		if (path == null || !isSafePath(path)) {
+			error("Illegal path " + path);
+			return Result.FAILED;
+		}
+		if (file.exists()) {
+			cachedFiles.incrementAndGet();
+			return Result.CACHED;
+		}
+		if (state != State.running) {
+			return Result.FAILED;
+		}
+		try {
+			URL url = new URL(StringUtils.makeUrl(repository.url, path));
+			new ProxyDownload(config, metrics, url, file).download();
+			fetchedFiles.incrementAndGet();
+			bytes.addAndGet(file.length());
+			return Result.FETCHED;
+		} catch (DownloadFailed e) {
+			if (e.getStatusCode() == 404) {
+				return Result.MISSING;
+			}
+			error(path + ": " + e.getMessage());
+		} catch (IOException e) {
+			error(path + ": " + e.getMessage());
+		}
+		return Result.FAILED;
+	}
+
+	/**
+	 * Submits a task to the sync executor and tracks its completion.
+	 */
+	private void submit(final Runnable task) {
+		if (state != State.running) {
+			return;
+		}
+		pending.incrementAndGet();
+		try {
+			execute(task);
+		} catch (RejectedExecutionException e) {
+			// the proxy is shutting down
+			pending.decrementAndGet();
+			state = State.cancelled;
+		}
+	}
+
+	private void execute(final Runnable task) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (state == State.running) {
+						task.run();
+					}
+				} catch (Throwable t) {
+					log.log(Level.WARNING, "sync job " + id + " task failed", t);
+					error(t.getMessage());
+				} finally {
+					if (pending.decrementAndGet() == 0) {
+						synchronized (pending) {
+							pending.notifyAll();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void awaitPending() throws InterruptedException {
+		synchronized (pending) {
+			while (pending.get() > 0) {
+				pending.wait(1000);
+			}
+		}
+	}
+
+	private void error(String message) {
+		synchronized (errors) {
+			if (errors.size() < MAX_ERRORS) {
+				errors.add(message);
+			}
+		}
+	}
+
+	private IMavenCache getCache() {
+		return config.getMavenCache(repository.id);
+	}
+
+	private File getTempFolder() {
+		File folder = new File(config.getMoxieRoot(), "sync");
+		folder.mkdirs();
+		return folder;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getRepository() {
+		return repository.id;
+	}
+
+	public String getSource() {
+		return source.name();
+	}
+
+	/**
+	 * Returns a short description of the input of the job.
+	 */
+	public String getDescription() {
+		if (source == Source.prefixes) {
+			String url = getPrefixesUrl(repository, input);
+			return url == null ? input.trim() : url;
+		}
+		int lines = 0;
+		for (String line : input.split("\n")) {
+			if (line.trim().length() > 0 && !line.trim().startsWith("#")) {
+				lines++;
+			}
+		}
+		return lines + " " + source.name();
+	}
+
+	public String getState() {
+		return state.name();
+	}
+
+	public boolean isActive() {
+		return state == State.queued || state == State.running;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public Date getStarted() {
+		return started;
+	}
+
+	public Date getFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the elapsed time of the job in seconds.
+	 */
+	public long getElapsed() {
+		if (started == null) {
+			return 0;
+		}
+		long end = finished == null ? System.currentTimeMillis() : finished.getTime();
+		return (end - started.getTime()) / 1000;
+	}
+
+	public int getTotal() {
+		return total.get();
+	}
+
+	public int getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Returns the percentage of completed artifacts. The total of a crawl
+	 * grows while the remote folders are listed.
+	 */
+	public int getProgress() {
+		if (!isActive()) {
+			return 100;
+		}
+		int count = total.get();
+		return count == 0 ? 0 : (int) (completed.get() * 100L / count);
+	}
+
+	public int getMissing() {
+		return missing.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	public int getFetchedFiles() {
+		return fetchedFiles.get();
+	}
+
+	public int getCachedFiles() {
+		return cachedFiles.get();
+	}
+
+	public String getSize() {
+		return FileUtils.formatSize(bytes.get());
+	}
+
+	public List<String> getErrors() {
+		synchronized (errors) {
+			return new ArrayList<String>(errors);
+		}
+	}
+}
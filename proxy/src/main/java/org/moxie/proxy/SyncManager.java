@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.moxie.RemoteRepository;
+import org.moxie.proxy.SyncJob.Source;
+
+/**
+ * Runs the sync jobs which pre-seed the proxied repositories.
+ * <p>
+ * Jobs are executed one at a time, in the order they were submitted. The
+ * downloads of a job are executed by a fixed pool of sync threads so the load
+ * on the remote repository is bounded regardless of the size of the job. The
+ * most recent jobs are retained for the sync page.
+ *
+ * @author James Moger
+ *
+ */
+public class SyncManager {
+
+	private static final int MAX_JOBS = 20;
+
+	private final ProxyConfig config;
+
+	private final ProxyMetrics metrics;
+
+	private final LuceneExecutor lucene;
+
+	private final ExecutorService jobs;
+
+	private final ExecutorService downloads;
+
+	private final AtomicInteger ids;
+
+	private final LinkedList<SyncJob> history;
+
+	public SyncManager(ProxyConfig config, ProxyMetrics metrics, LuceneExecutor lucene) {
+		this.config = config;
+		this.metrics = metrics;
+		this.lucene = lucene;
+		this.jobs = Executors.newSingleThreadExecutor(new SyncThreadFactory("sync"));
+		this.downloads = Executors.newFixedThreadPool(Math.max(1, config.getSyncThreads()),
+				new SyncThreadFactory("sync-download"));
+		this.ids = new AtomicInteger();
+		this.history = new LinkedList<SyncJob>();
+	}
+
+	/**
+	 * Queues a sync job.
+	 *
+	 * @param repository
+	 *            the id of a proxied repository
+	 * @param source
+	 * @param input
+	 *            the coordinates, the lockfile or the url of the prefixes
+	 * @return the job or null if the repository is not a proxied repository
+	 */
+	public SyncJob submit(String repository, Source source, String input) {
+		RemoteRepository remote = config.getRemoteRepository(repository);
+		if (remote == null || source == null) {
+			return null;
+		}
+		SyncJob job = new SyncJob(ids.incrementAndGet(), config, metrics, lucene, downloads, remote, source, input);
+		synchronized (history) {
+			history.addFirst(job);
+			// forget the oldest completed jobs
+			for (int i = history.size() - 1; i >= 0 && history.size() > MAX_JOBS; i--) {
+				if (!history.get(i).isActive()) {
+					history.remove(i);
+				}
+			}
+		}
+		jobs.execute(job);
+		return job;
+	}
+
+	/**
+	 * Returns the retained jobs, newest first.
+	 */
+	public List<SyncJob> getJobs() {
+		synchronized (history) {
+			return new ArrayList<SyncJob>(history);
+		}
+	}
+
+	public SyncJob getJob(int id) {
+		synchronized (history) {
+			for (SyncJob job : history) {
+				if (job.getId() == id) {
+					return job;
+				}
+			}
+		}
+		return null;
+	}
+
+	public boolean isActive() {
+		for (SyncJob job : getJobs()) {
+			if (job.isActive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void shutdown() {
+		for (SyncJob job : getJobs()) {
+			job.cancel();
+		}
+		jobs.shutdownNow();
+		downloads.shutdownNow();
+	}
+
+	private static class SyncThreadFactory implements ThreadFactory {
+		final String name;
+		final AtomicInteger count = new AtomicInteger();
+
+		SyncThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.moxie.Metadata;
+import org.moxie.MetadataReader;
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.Method;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.routing.Filter;
+
+/**
+ * Accepts artifact uploads (PUT) to a local repository, e.g. from a Maven or
+ * Moxie deploy on another host. Other requests are passed to the Maven 2
+ * directory of the repository. Uploads are only accepted if they are enabled
+ * in the proxy configuration.
+ * <p>
+ * Released artifacts are immutable, an upload which would overwrite an
+ * existing release artifact is rejected with 409 Conflict. Snapshot artifacts
+ * and metadata may be replaced.
+ * <p>
+ * An upload is streamed to a temporary file in the target folder while its
+ * SHA-1 and MD5 checksums are computed. The temporary file is then atomically
+ * moved into place and the checksum files are written. Only the move is
+ * serialized, per target path, so concurrent uploads of different artifacts
+ * do not block each other.
+ * <p>
+ * An uploaded maven-metadata.xml is merged with the current metadata so that
+ * concurrent deploys of different versions do not drop each other's versions.
+ * Uploaded checksums of artifacts are verified against the computed
+ * checksums, uploaded checksums of metadata are superseded by the checksums of
+ * the merged metadata. Uploaded poms and jars are queued for indexing
+ * immediately.
+ *
+ * @author James Moger
+ *
+ */
+public class UploadFilter extends Filter {
+
+	public static final Logger log = Logger.getLogger(UploadFilter.class.getSimpleName());
+
+	private static final String METADATA = "maven-metadata.xml";
+
+	private static final String SHA1 = ".sha1";
+
+	private static final String MD5 = ".md5";
+
+	private final ProxyConfig config;
+
+	private final LuceneExecutor lucene;
+
+	private final String repository;
+
+	private final File root;
+
+	private final Map<String, PathLock> locks;
+
+	public UploadFilter(Context context, Restlet next, ProxyConfig config, LuceneExecutor lucene, String repository) {
+		super(context, next);
+		this.config = config;
+		this.lucene = lucene;
+		this.repository = repository;
+		this.root = config.getArtifactRoot(repository);
+		this.locks = new HashMap<String, PathLock>();
+	}
+
+	@Override
+	protected int beforeHandle(Request request, Response response) {
+		if (!Method.PUT.equals(request.getMethod())) {
+			return CONTINUE;
+		}
+		String path = getPath(request.getResourceRef().getRemainingPart(true, false));
+		if (path == null) {
+			response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "Illegal artifact path");
+			return STOP;
+		}
+		Representation entity = request.getEntity();
+		if (entity == null || !entity.isAvailable()) {
+			response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "Missing content");
+			return STOP;
+		}
+		try {
+			File file = new File(root, path);
+			if (isImmutable(file) && file.exists()) {
+				response.setStatus(Status.CLIENT_ERROR_CONFLICT, "Released artifacts can not be overwritten");
+				return STOP;
+			}
+			if (isChecksum(path)) {
+				response.setStatus(putChecksum(file, entity.getText()));
+			} else {
+				response.setStatus(put(path, file, entity.getStream()));
+			}
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Failed to store " + path + " in " + repository, e);
+			response.setStatus(Status.SERVER_ERROR_INTERNAL, e.getMessage());
+		}
+		return STOP;
+	}
+
+	/**
+	 * Returns the normalized relative path of an upload or null if the path
+	 * does not denote a regular artifact file.
+	 *
+	 * @param path
+	 * @return the normalized path or null
+	 */
+	static String getPath(String path) {
+		if (StringUtils.isEmpty(path) || path.endsWith("/")) {
+			return null;
+		}
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		if (path.length() == 0 || path.indexOf('\\') > -1) {
+			return null;
+		}
+		for (String segment : path.split("/")) {
+			// reject traversal and writes to .meta, .index, etc
+			if (segment.length() == 0 || segment.startsWith(".")) {
+				return null;
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Returns true if the file is a release artifact. Snapshot artifacts,
+	 * metadata and checksums may be replaced by later uploads.
+	 *
+	 * @param file
+	 * @return true if an existing file may not be overwritten
+	 */
+	static boolean isImmutable(File file) {
+		if (isChecksum(file.getName())) {
+			// uploaded checksums of existing artifacts are verified
+			return false;
+		}
+		if (METADATA.equals(file.getName())) {
+			return false;
+		}
+		File folder = file.getParentFile();
+		return folder == null || !folder.getName().endsWith("-SNAPSHOT");
+	}
+
+	/**
+	 * Stores an uploaded artifact and its checksums.
+	 */
+	private Status put(String path, File file, InputStream is) throws IOException {
+		File folder = file.getParentFile();
+		folder.mkdirs();
+		File tmp = new File(folder, "." + file.getName() + "." + Thread.currentThread().getId() + "."
+				+ System.nanoTime() + ".part");
+		MessageDigest sha1 = getDigest("SHA-1");
+		MessageDigest md5 = getDigest("MD5");
+		long length = 0;
+		try {
+			OutputStream os = new FileOutputStream(tmp);
+			try {
+				byte [] buffer = new byte[32767];
+				int len;
+				while ((len = is.read(buffer)) > -1) {
+					os.write(buffer, 0, len);
+					sha1.update(buffer, 0, len);
+					md5.update(buffer, 0, len);
+					length += len;
+				}
+			} finally {
+				os.close();
+				is.close();
+			}
+
+			boolean created;
+			PathLock lock = lock(path);
+			try {
+				synchronized (lock) {
+					created = !file.exists();
+					if (!created && isImmutable(file)) {
+						// a concurrent upload stored the release first
+						return new Status(Status.CLIENT_ERROR_CONFLICT, "Released artifacts can not be overwritten");
+					}
+					long previous = created ? 0 : file.length();
+					if (METADATA.equals(file.getName()) && !created) {
+						length = merge(tmp, file, sha1, md5);
+					}
+					move(tmp, file);
+					writeChecksum(file, SHA1, toHex(sha1.digest()));
+					writeChecksum(file, MD5, toHex(md5.digest()));
+					config.adjustRepositorySize(repository, length - previous);
+				}
+			} finally {
+				unlock(path, lock);
+			}
+
+			log.fine(MessageFormat.format("stored {0} ({1}) in {2}", path, FileUtils.formatSize(length), repository));
+			index(file);
+			return created ? Status.SUCCESS_CREATED : Status.SUCCESS_OK;
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Merges an uploaded maven-metadata.xml with the current metadata. The
+	 * merged metadata replaces the content of the temporary file and the
+	 * digests are recomputed.
+	 *
+	 * @return the length of the merged metadata
+	 */
+	private long merge(File tmp, File current, MessageDigest sha1, MessageDigest md5) throws IOException {
+		Metadata uploaded;
+		Metadata existing;
+		try {
+			uploaded = MetadataReader.readMetadata(new String(Files.readAllBytes(tmp.toPath()), "UTF-8"));
+			existing = MetadataReader.readMetadata(current);
+		} catch (RuntimeException e) {
+			// keep the uploaded metadata as is
+			log.log(Level.WARNING, "Failed to merge " + current, e);
+			return tmp.length();
+		}
+		if (existing == null) {
+			return tmp.length();
+		}
+		uploaded.merge(existing);
+		byte [] bytes = uploaded.toXML().getBytes("UTF-8");
+		Files.write(tmp.toPath(), bytes);
+		sha1.reset();
+		sha1.update(bytes);
+		md5.reset();
+		md5.update(bytes);
+		return bytes.length;
+	}
+
+	/**
+	 * Handles an uploaded checksum. The checksums of uploaded artifacts have
+	 * already been computed so the uploaded checksum is only verified.
+	 */
+	private Status putChecksum(File file, String content) throws IOException {
+		String name = file.getName();
+		String extension = name.substring(name.lastIndexOf('.'));
+		File artifact = new File(file.getParentFile(), name.substring(0, name.length() - extension.length()));
+		String checksum = content == null ? "" : content.trim();
+		if (checksum.indexOf(' ') > -1) {
+			// "checksum  filename" format
+			checksum = checksum.substring(0, checksum.indexOf(' '));
+		}
+		if (file.exists() && artifact.exists()) {
+			if (METADATA.equals(artifact.getName())) {
+				// the metadata may have been merged, keep our checksum
+				return Status.SUCCESS_OK;
+			}
+			String expected = FileUtils.readContent(file, "\n").trim();
+			if (!expected.equalsIgnoreCase(checksum)) {
+				log.warning(MessageFormat.format("{0} checksum mismatch for {1} in {2}: expected {3}, got {4}",
+						extension.substring(1), artifact.getName(), repository, expected, checksum));
+				return new Status(Status.CLIENT_ERROR_BAD_REQUEST, "Checksum mismatch for " + artifact.getName());
+			}
+			return Status.SUCCESS_OK;
+		}
+		// the checksum was uploaded before its artifact
+		file.getParentFile().mkdirs();
+		String path = FileUtils.getRelativePath(root, file);
+		PathLock lock = lock(path);
+		try {
+			synchronized (lock) {
+				boolean created = !file.exists();
+				writeChecksum(artifact, extension, checksum);
+				return created ? Status.SUCCESS_CREATED : Status.SUCCESS_OK;
+			}
+		} finally {
+			unlock(path, lock);
+		}
+	}
+
+	private void index(File file) {
+		String name = file.getName();
+		if (name.endsWith(org.moxie.Constants.POM)) {
+			lucene.index(repository, file);
+		} else {
+			lucene.indexClasses(repository, file);
+		}
+	}
+
+	private void writeChecksum(File artifact, String extension, String checksum) throws IOException {
+		File file = new File(artifact.getParentFile(), artifact.getName() + extension);
+		File tmp = new File(file.getParentFile(), "." + file.getName() + "." + System.nanoTime() + ".part");
+		Files.write(tmp.toPath(), checksum.getBytes("UTF-8"));
+		move(tmp, file);
+	}
+
+	private static void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static boolean isChecksum(String path) {
+		return path.endsWith(SHA1) || path.endsWith(MD5);
+	}
+
+	private static MessageDigest getDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static String toHex(byte [] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the lock of a target path. Locks are reference counted and
+	 * discarded when they are no longer used.
+	 */
+	private PathLock lock(String path) {
+		synchronized (locks) {
+			PathLock lock = locks.get(path);
+			if (lock == null) {
+				lock = new PathLock();
+				locks.put(path, lock);
+			}
+			lock.users++;
+			return lock;
+		}
+	}
+
+	private void unlock(String path, PathLock lock) {
+		synchronized (locks) {
+			if (--lock.users == 0) {
+				locks.remove(path);
+			}
+		}
+	}
+
+	private static class PathLock {
+		int users;
+	}
+}
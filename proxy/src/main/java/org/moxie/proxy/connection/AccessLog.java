@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.connection;
+
+import java.net.InetAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous access log of the proxy connector.
+ * <p>
+ * Request threads only enqueue the request details. A single daemon thread
+ * formats the entries in the common log format, extended with the time spent
+ * serving the request, and writes them to the "AccessLog" logger. Entries are
+ * dropped, rather than blocking a request, when the log falls behind.
+ *
+ * @author James Moger
+ *
+ */
+public class AccessLog extends Thread {
+
+	public static final Logger log = Logger.getLogger(AccessLog.class.getSimpleName());
+
+	private static final int MAX_QUEUED = 10000;
+
+	private final BlockingQueue<Entry> queue;
+
+	private final SimpleDateFormat format;
+
+	private volatile boolean running;
+
+	public AccessLog() {
+		this.queue = new ArrayBlockingQueue<Entry>(MAX_QUEUED);
+		this.format = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+		this.running = true;
+		setDaemon(true);
+		setName("proxy access log");
+	}
+
+	/**
+	 * Queues a served request for logging. This never blocks the caller.
+	 *
+	 * @param address
+	 *            the client address
+	 * @param method
+	 * @param url
+	 * @param status
+	 *            the http status code of the response
+	 * @param bytes
+	 *            the length of the transferred entity
+	 * @param nanos
+	 *            the time spent serving the request
+	 */
+	public void log(InetAddress address, String method, String url, int status, long bytes, long nanos) {
+		queue.offer(new Entry(System.currentTimeMillis(), address, method, url, status, bytes, nanos));
+	}
+
+	public void shutdown() {
+		running = false;
+		interrupt();
+	}
+
+	@Override
+	public void run() {
+		while (running || !queue.isEmpty()) {
+			try {
+				Entry entry = queue.poll(1, TimeUnit.SECONDS);
+				if (entry != null) {
+					log.info(format(entry));
+				}
+			} catch (InterruptedException e) {
+				// drain the queued entries and exit
+			}
+		}
+	}
+
+	private String format(Entry entry) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(entry.address == null ? "-" : entry.address.getHostAddress());
+		sb.append(" - - [").append(format.format(new Date(entry.time))).append("] \"");
+		sb.append(entry.method).append(' ').append(entry.url).append(" HTTP/1.1\" ");
+		sb.append(entry.status).append(' ').append(entry.bytes).append(' ');
+		sb.append(TimeUnit.NANOSECONDS.toMillis(entry.nanos)).append("ms");
+		return sb.toString();
+	}
+
+	private static class Entry {
+		final long time;
+		final InetAddress address;
+		final String method;
+		final String url;
+		final int status;
+		final long bytes;
+		final long nanos;
+
+		Entry(long time, InetAddress address, String method, String url, int status, long bytes, long nanos) {
+			this.time = time;
+			this.address = address;
+			this.method = method;
+			this.url = url;
+			this.status = status;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+	}
+}
@@ -44,4 +44,20 @@ public class DownloadFailed extends Exception {
 	public String getStatusLine() {
 		return statusLine;
 	}
+
+	/**
+	 * Returns the http status code of the status line.
+	 * 
+	 * @return the status code or 502 if the status line has no status code
+	 */
+	public int getStatusCode() {
+		String [] parts = statusLine.trim().split("\\s+");
+		if (parts.length > 1) {
+			try {
+				return Integer.parseInt(parts[1]);
+			} catch (NumberFormatException e) {
+			}
+		}
+		return 502;
+	}
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.connection;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks when volatile artifacts (snapshots, maven-metadata, repository
+ * indexes) were last validated against their upstream repository and
+ * performs stale-while-revalidate refreshes in the background.
+ *
+ * @author James Moger
+ *
+ */
+public class FreshnessCache {
+
+	public static final Logger log = Logger.getLogger(FreshnessCache.class.getSimpleName());
+
+	private final Map<String, Validation> validations;
+
+	private final Map<String, Boolean> revalidating;
+
+	private final ExecutorService executor;
+
+	public FreshnessCache() {
+		validations = new ConcurrentHashMap<String, Validation>();
+		revalidating = new ConcurrentHashMap<String, Boolean>();
+		executor = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "revalidate-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Returns the number of milliseconds since the file was last validated
+	 * against the upstream repository. Files which have not been validated
+	 * since the proxy started are considered infinitely old.
+	 *
+	 * @param file
+	 * @return age in milliseconds
+	 */
+	public long getAge(File file) {
+		Validation validation = validations.get(file.getAbsolutePath());
+		if (validation == null) {
+			return Long.MAX_VALUE;
+		}
+		return System.currentTimeMillis() - validation.date;
+	}
+
+	/**
+	 * Returns the entity tag reported by the upstream repository when the file
+	 * was last validated.
+	 *
+	 * @param file
+	 * @return the ETag or null
+	 */
+	public String getETag(File file) {
+		Validation validation = validations.get(file.getAbsolutePath());
+		if (validation == null) {
+			return null;
+		}
+		return validation.etag;
+	}
+
+	/**
+	 * Records that the file has been validated against the upstream
+	 * repository.
+	 *
+	 * @param file
+	 * @param etag
+	 *            the upstream entity tag, may be null
+	 */
+	public void validated(File file, String etag) {
+		validations.put(file.getAbsolutePath(), new Validation(etag));
+	}
+
+	/**
+	 * Asynchronously revalidates a file. Concurrent revalidation requests for
+	 * the same file are coalesced into a single upstream request.
+	 *
+	 * @param file
+	 * @param revalidation
+	 */
+	public void revalidate(File file, final Runnable revalidation) {
+		final String key = file.getAbsolutePath();
+		if (revalidating.put(key, Boolean.TRUE) != null) {
+			// already revalidating this file
+			return;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					revalidation.run();
+				} catch (Throwable t) {
+					log.log(Level.WARNING, "Failed to revalidate " + key, t);
+				} finally {
+					revalidating.remove(key);
+				}
+			}
+		});
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private static class Validation {
+		final long date;
+		final String etag;
+
+		Validation(String etag) {
+			this.date = System.currentTimeMillis();
+			this.etag = etag;
+		}
+	}
+}
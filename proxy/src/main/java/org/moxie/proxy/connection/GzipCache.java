@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.connection;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.moxie.utils.FileUtils;
+
+/**
+ * Produces gzip compressed variants of text artifacts. Compressed variants of
+ * immutable artifacts are stored in a separate folder so that they are only
+ * compressed once. The compressed copy inherits the last modified date of
+ * its source so a changed source invalidates the compressed copy.
+ *
+ * @author James Moger
+ *
+ */
+public class GzipCache {
+
+	public static final Logger log = Logger.getLogger(GzipCache.class.getSimpleName());
+
+	/**
+	 * Files smaller than this are not worth compressing.
+	 */
+	public static final int MIN_SIZE = 512;
+
+	/**
+	 * The folder of the compressed copies, relative to the Moxie root.
+	 */
+	public static final String FOLDER = "gzip";
+
+	private final File sourceRoot;
+
+	private final File cacheRoot;
+
+	public GzipCache(File sourceRoot, File cacheRoot) {
+		this.sourceRoot = sourceRoot;
+		this.cacheRoot = cacheRoot;
+	}
+
+	/**
+	 * Returns true if the content type is textual and the file is large
+	 * enough to benefit from compression.
+	 *
+	 * @param file
+	 * @param contentType
+	 * @return true if the file should be compressed
+	 */
+	public static boolean isCompressible(File file, String contentType) {
+		return isText(contentType) && file.length() >= MIN_SIZE;
+	}
+
+	/**
+	 * Returns true if the content type is textual. Binary artifacts are
+	 * already compressed archives and are never compressed again.
+	 *
+	 * @param contentType
+	 * @return true if the content type is textual
+	 */
+	public static boolean isText(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		return contentType.startsWith("text/") || contentType.endsWith("+xml")
+				|| contentType.endsWith("/xml") || contentType.endsWith("/json");
+	}
+
+	/**
+	 * Returns the cached compressed copy of an immutable file, compressing the
+	 * file if the cached copy does not exist or is out-of-date.
+	 *
+	 * @param file
+	 * @return the compressed copy or null if it could not be created
+	 */
+	public File getCompressed(File file) {
+		String path = FileUtils.getRelativePath(sourceRoot, file);
+		if (path == null) {
+			return null;
+		}
+		File gz = new File(cacheRoot, path + ".gz");
+		if (gz.exists() && gz.lastModified() == file.lastModified()) {
+			return gz;
+		}
+		gz.getParentFile().mkdirs();
+		File tmp = new File(gz.getParentFile(), gz.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			OutputStream os = new FileOutputStream(tmp);
+			try {
+				compress(file, os);
+			} finally {
+				os.close();
+			}
+			tmp.setLastModified(file.lastModified());
+			gz.delete();
+			if (!tmp.renameTo(gz)) {
+				// a concurrent request won the race
+				tmp.delete();
+			}
+			return gz.exists() ? gz : null;
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Failed to compress " + file, e);
+			tmp.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Compresses a volatile file into memory.
+	 *
+	 * @param file
+	 * @return the gzip compressed content
+	 * @throws IOException
+	 */
+	public static byte[] compress(File file) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream((int) Math.max(64, file.length() / 4));
+		compress(file, os);
+		return os.toByteArray();
+	}
+
+	private static void compress(File file, OutputStream os) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(os, 8192);
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				gzip.write(buffer, 0, len);
+			}
+			gzip.finish();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Buffered HTTP/1.x request parser for proxy connections.
+ * <p>
+ * The parser reads the request line and headers directly from its own byte
+ * buffer. Only the request target and the values of the headers which the
+ * proxy acts upon are materialized as Strings. Bytes which follow a request
+ * are retained in the buffer so that pipelined requests are parsed in order
+ * by subsequent calls to {@link #next()}.
+ *
+ * @author James Moger
+ *
+ */
+public class HttpRequestParser {
+
+	public enum HttpMethod {
+		GET, HEAD;
+	}
+
+	private static final byte[] CONNECTION = ascii("connection");
+	private static final byte[] PROXY_CONNECTION = ascii("proxy-connection");
+	private static final byte[] CONTENT_LENGTH = ascii("content-length");
+	private static final byte[] ACCEPT_ENCODING = ascii("accept-encoding");
+	private static final byte[] KEEP_ALIVE = ascii("keep-alive");
+	private static final byte[] CLOSE = ascii("close");
+	private static final byte[] HTTP_1_0 = ascii("HTTP/1.0");
+
+	private final InputStream in;
+	private final byte[] buffer;
+	private int pos;
+	private int limit;
+
+	private String methodName;
+	private HttpMethod method;
+	private String uri;
+	private boolean http10;
+	private boolean keepAlive;
+	private long contentLength;
+	private boolean gzipAccepted;
+
+	public HttpRequestParser(InputStream in) {
+		this(in, 8 * 1024);
+	}
+
+	HttpRequestParser(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Parses the next request from the connection.
+	 *
+	 * @return false if the client closed the connection or the connection
+	 *         idled out before a new request was started
+	 * @throws IOException
+	 *             if the request is malformed or the connection failed
+	 *             mid-request
+	 */
+	public boolean next() throws IOException {
+		reset();
+
+		int lineStart;
+		do {
+			lineStart = readLine(true);
+			if (lineStart < 0) {
+				return false;
+			}
+			// RFC 7230 3.5: ignore empty lines preceding the request-line
+		} while (pos - lineStart <= 2 && isBlankLine(lineStart, pos));
+
+		parseRequestLine(lineStart, lineEnd(lineStart, pos));
+
+		// headers
+		while (true) {
+			lineStart = readLine(false);
+			int end = lineEnd(lineStart, pos);
+			if (end == lineStart) {
+				// end of headers
+				break;
+			}
+			parseHeader(lineStart, end);
+		}
+
+		// discard any request entity, GET and HEAD requests should not have one
+		skip(contentLength);
+		return true;
+	}
+
+	public HttpMethod getMethod() {
+		return method;
+	}
+
+	public String getMethodName() {
+		return methodName;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * Returns true if the connection should be kept open after responding to
+	 * the current request. HTTP/1.1 connections are persistent unless the
+	 * client asks to close them, HTTP/1.0 connections are closed unless the
+	 * client asks to keep them alive.
+	 *
+	 * @return true if the connection is persistent
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	public boolean isHttp10() {
+		return http10;
+	}
+
+	/**
+	 * Returns true if the client accepts gzip content-coding.
+	 *
+	 * @return true if the response may be gzip compressed
+	 */
+	public boolean isGzipAccepted() {
+		return gzipAccepted;
+	}
+
+	private void reset() {
+		methodName = null;
+		method = null;
+		uri = null;
+		http10 = false;
+		keepAlive = true;
+		contentLength = 0;
+		gzipAccepted = false;
+	}
+
+	private void parseRequestLine(int start, int end) throws IOException {
+		int sp1 = indexOf(' ', start, end);
+		int sp2 = lastIndexOf(' ', start, end);
+		if (sp1 < 0) {
+			throw new IOException("Malformed request line: " + new String(buffer, start, end - start, "ISO-8859-1"));
+		}
+		for (HttpMethod m : HttpMethod.values()) {
+			if (equals(m.name(), start, sp1)) {
+				method = m;
+				break;
+			}
+		}
+		if (method == null) {
+			methodName = new String(buffer, start, sp1 - start, "ISO-8859-1");
+		} else {
+			methodName = method.name();
+		}
+		if (sp2 > sp1) {
+			uri = new String(buffer, sp1 + 1, sp2 - sp1 - 1, "ISO-8859-1");
+			http10 = regionMatches(HTTP_1_0, sp2 + 1, end, false);
+		} else {
+			// HTTP/0.9 style request line
+			uri = new String(buffer, sp1 + 1, end - sp1 - 1, "ISO-8859-1");
+			http10 = true;
+		}
+		keepAlive = !http10;
+	}
+
+	private void parseHeader(int start, int end) {
+		int colon = indexOf(':', start, end);
+		if (colon < 0) {
+			return;
+		}
+		int valueStart = colon + 1;
+		while (valueStart < end && (buffer[valueStart] == ' ' || buffer[valueStart] == '\t')) {
+			valueStart++;
+		}
+		int valueEnd = end;
+		while (valueEnd > valueStart && (buffer[valueEnd - 1] == ' ' || buffer[valueEnd - 1] == '\t')) {
+			valueEnd--;
+		}
+
+		if (regionMatches(CONNECTION, start, colon, true)
+				|| regionMatches(PROXY_CONNECTION, start, colon, true)) {
+			if (contains(CLOSE, valueStart, valueEnd)) {
+				keepAlive = false;
+			} else if (contains(KEEP_ALIVE, valueStart, valueEnd)) {
+				keepAlive = true;
+			}
+		} else if (regionMatches(CONTENT_LENGTH, start, colon, true)) {
+			long length = 0;
+			for (int i = valueStart; i < valueEnd; i++) {
+				byte b = buffer[i];
+				if (b < '0' || b > '9') {
+					break;
+				}
+				length = length * 10 + (b - '0');
+			}
+			contentLength = length;
+		} else if (regionMatches(ACCEPT_ENCODING, start, colon, true)) {
+			gzipAccepted = acceptsGzip(string(valueStart, valueEnd));
+		}
+	}
+
+	private String string(int start, int end) {
+		try {
+			return new String(buffer, start, end - start, "ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Determines whether an Accept-Encoding header value allows gzip
+	 * content-coding, honoring explicit q=0 exclusions.
+	 *
+	 * @param value
+	 * @return true if gzip is acceptable
+	 */
+	static boolean acceptsGzip(String value) {
+		boolean accepted = false;
+		for (String coding : value.split(",")) {
+			String name = coding;
+			float q = 1;
+			int semi = coding.indexOf(';');
+			if (semi > -1) {
+				name = coding.substring(0, semi);
+				String param = coding.substring(semi + 1).trim();
+				if (param.startsWith("q=") || param.startsWith("Q=")) {
+					try {
+						q = Float.parseFloat(param.substring(2).trim());
+					} catch (NumberFormatException e) {
+						q = 0;
+					}
+				}
+			}
+			name = name.trim();
+			if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+				// an explicit gzip entry overrides the wildcard
+				return q > 0;
+			} else if ("*".equals(name)) {
+				accepted = q > 0;
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * Reads a line into the buffer, compacting the buffer if required.
+	 *
+	 * @param idle
+	 *            true if no bytes of the current request have been read yet
+	 * @return the buffer offset of the line start or -1 if the stream ended
+	 *         before a new request
+	 * @throws IOException
+	 */
+	private int readLine(boolean idle) throws IOException {
+		int start = pos;
+		while (true) {
+			for (int i = pos; i < limit; i++) {
+				if (buffer[i] == '\n') {
+					pos = i + 1;
+					return start;
+				}
+			}
+			if (start > 0) {
+				// reclaim space consumed by earlier lines and requests
+				System.arraycopy(buffer, start, buffer, 0, limit - start);
+				limit -= start;
+				pos = limit;
+				start = 0;
+			} else {
+				pos = limit;
+			}
+			if (limit == buffer.length) {
+				throw new IOException("Request header line exceeds " + buffer.length + " bytes");
+			}
+			int len = fill(idle && start == limit);
+			if (len < 0) {
+				if (idle && start == limit) {
+					return -1;
+				}
+				throw new IOException("Connection closed mid-request");
+			}
+		}
+	}
+
+	private int fill(boolean idle) throws IOException {
+		int len;
+		try {
+			len = in.read(buffer, limit, buffer.length - limit);
+		} catch (SocketTimeoutException e) {
+			if (idle) {
+				// idle persistent connection timed out
+				return -1;
+			}
+			throw e;
+		} catch (SocketException e) {
+			if (idle && e.getMessage() != null && "connection reset".equals(e.getMessage().toLowerCase())) {
+				return -1;
+			}
+			throw e;
+		}
+		if (len > 0) {
+			limit += len;
+		}
+		return len;
+	}
+
+	private void skip(long count) throws IOException {
+		long buffered = Math.min(count, limit - pos);
+		pos += (int) buffered;
+		count -= buffered;
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new IOException("Connection closed mid-request");
+				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	/**
+	 * Returns the end of line, excluding CR LF, for the line that starts at
+	 * start and whose terminating LF precedes next.
+	 */
+	private int lineEnd(int start, int next) {
+		int end = next - 1;
+		if (end > start && buffer[end - 1] == '\r') {
+			end--;
+		}
+		return Math.max(start, end);
+	}
+
+	private boolean isBlankLine(int start, int next) {
+		return lineEnd(start, next) == start;
+	}
+
+	private int indexOf(char c, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buffer[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int lastIndexOf(char c, int start, int end) {
+		for (int i = end - 1; i >= start; i--) {
+			if (buffer[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean equals(String value, int start, int end) {
+		if (end - start != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (buffer[start + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean regionMatches(byte[] lowercase, int start, int end, boolean ignoreCase) {
+		if (end - start != lowercase.length) {
+			return false;
+		}
+		for (int i = 0; i < lowercase.length; i++) {
+			byte b = buffer[start + i];
+			if (ignoreCase && b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != lowercase[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean contains(byte[] lowercase, int start, int end) {
+		for (int i = start; i <= end - lowercase.length; i++) {
+			if (regionMatches(lowercase, i, i + lowercase.length, true)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static byte[] ascii(String value) {
+		byte[] bytes = new byte[value.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) value.charAt(i);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.connection;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.moxie.Constants;
+import org.moxie.Dependency;
+import org.moxie.IMavenCache;
+import org.moxie.MoxieException.MissingParentPomException;
+import org.moxie.Pom;
+import org.moxie.PomReader;
+import org.moxie.RemoteRepository;
+import org.moxie.Scope;
+import org.moxie.SystemDependency;
+import org.moxie.proxy.LuceneExecutor;
+import org.moxie.proxy.ProxyConfig;
+import org.moxie.proxy.ProxyMetrics;
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+
+/**
+ * Prefetches the dependency closure of a freshly proxied POM so that the
+ * subsequent requests of the client are served from the local cache.
+ * <p>
+ * Prefetching is best-effort: it is bounded by the configured depth and
+ * thread count and tasks are dropped when the work queue is full.
+ *
+ * @author James Moger
+ *
+ */
+public class Prefetcher {
+
+	public static final Logger log = Logger.getLogger(Prefetcher.class.getSimpleName());
+
+	private static final int MAX_QUEUED = 1000;
+
+	private static final int MAX_PARENTS = 10;
+
+	private final ProxyConfig config;
+	private final LuceneExecutor lucene;
+	private final ProxyMetrics metrics;
+	private final ThreadPoolExecutor executor;
+	private final Set<String> queued;
+
+	public Prefetcher(ProxyConfig config, LuceneExecutor lucene, ProxyMetrics metrics) {
+		this.config = config;
+		this.lucene = lucene;
+		this.metrics = metrics;
+		this.queued = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		int threads = Math.max(1, config.getPrefetchThreads());
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+					final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "prefetch-" + count.incrementAndGet());
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				}, new RejectedExecutionHandler() {
+
+					@Override
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						// the queue is full or the prefetcher is shut down, the
+						// pom may be prefetched again when it is next retrieved
+						queued.remove(((PrefetchTask) r).key);
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues prefetching of the parent and the dependencies of a POM which was
+	 * just retrieved from a remote repository.
+	 *
+	 * @param pomUrl
+	 *            the remote url of the POM
+	 * @param pomFile
+	 *            the local copy of the POM
+	 */
+	public void prefetch(URL pomUrl, File pomFile) {
+		int depth = config.getPrefetchDepth();
+		if (depth <= 0) {
+			return;
+		}
+		String repositoryId = config.getRepositoryId(pomUrl);
+		if (repositoryId == null) {
+			return;
+		}
+		RemoteRepository repository = config.getRemoteRepository(repositoryId);
+		submit(repository, pomFile, depth);
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+		queued.clear();
+	}
+
+	private void submit(RemoteRepository repository, File pomFile, int depth) {
+		String key = pomFile.getAbsolutePath();
+		if (!queued.add(key)) {
+			// already queued
+			return;
+		}
+		executor.execute(new PrefetchTask(key, repository, pomFile, depth));
+	}
+
+	/**
+	 * Prefetches the parent and the dependencies of a POM. The POM is removed
+	 * from the queued POMs when the task completes or is rejected.
+	 */
+	private class PrefetchTask implements Runnable {
+		final String key;
+		final RemoteRepository repository;
+		final File pomFile;
+		final int depth;
+
+		PrefetchTask(String key, RemoteRepository repository, File pomFile, int depth) {
+			this.key = key;
+			this.repository = repository;
+			this.pomFile = pomFile;
+			this.depth = depth;
+		}
+
+		@Override
+		public void run() {
+			try {
+				resolve(repository, pomFile, depth);
+			} catch (Throwable t) {
+				log.log(Level.WARNING, "Failed to prefetch dependencies of " + pomFile, t);
+			} finally {
+				queued.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the parent POMs and the runtime dependencies of a POM and
+	 * queues the dependency POMs for prefetching at the next depth.
+	 *
+	 * @param repository
+	 * @param pomFile
+	 * @param depth
+	 */
+	void resolve(RemoteRepository repository, File pomFile, int depth) {
+		IMavenCache cache = config.getMavenCache(repository.id);
+		Pom pom = null;
+		for (int i = 0; i < MAX_PARENTS && pom == null; i++) {
+			try {
+				pom = PomReader.readPom(cache, pomFile);
+			} catch (MissingParentPomException e) {
+				// retrieve the parent and try again
+				if (fetch(repository, cache, e.getParent().getPomArtifact()) == null) {
+					break;
+				}
+			}
+		}
+		if (pom == null) {
+			pom = PomReader.readPom(cache, pomFile, PomReader.Requirements.LOOSE);
+		}
+
+		for (Dependency dependency : pom.getDependencies(Scope.runtime)) {
+			if (!isPrefetchable(dependency)) {
+				continue;
+			}
+			File dependencyPom = fetch(repository, cache, dependency.getPomArtifact());
+			if (dependencyPom == null) {
+				continue;
+			}
+			if (!Constants.POM.equals(dependency.extension)) {
+				fetch(repository, cache, dependency);
+			}
+			if (depth > 1) {
+				submit(repository, dependencyPom, depth - 1);
+			}
+		}
+	}
+
+	private boolean isPrefetchable(Dependency dependency) {
+		if (dependency instanceof SystemDependency || dependency.optional
+				|| Scope.system.equals(dependency.definedScope)) {
+			return false;
+		}
+		String version = dependency.version;
+		if (StringUtils.isEmpty(version) || version.contains("${")) {
+			// unresolved version
+			return false;
+		}
+		return !dependency.isMetaVersion();
+	}
+
+	/**
+	 * Retrieves an artifact from the remote repository, if it is not already
+	 * cached.
+	 *
+	 * @param repository
+	 * @param cache
+	 * @param dependency
+	 * @return the local file or null if the artifact could not be retrieved
+	 */
+	private File fetch(RemoteRepository repository, IMavenCache cache, Dependency dependency) {
+		File file = cache.getArtifact(dependency, dependency.extension);
+		if (file.exists()) {
+			return file;
+		}
+		try {
+			String path = FileUtils.getRelativePath(cache.getRootFolder(), file);
+			URL url = new URL(StringUtils.makeUrl(repository.url, path));
+			ProxyDownload download = new ProxyDownload(config, metrics, url, file);
+			download.download();
+			log.fine("Prefetched " + url);
+			if (Constants.POM.equals(dependency.extension)) {
+				lucene.index(file);
+			} else {
+				lucene.indexClasses(file);
+			}
+			return file;
+		} catch (DownloadFailed e) {
+			log.fine("Failed to prefetch " + dependency.getDetailedCoordinates() + ": " + e.getMessage());
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Failed to prefetch " + dependency.getDetailedCoordinates(), e);
+		}
+		return null;
+	}
+}
@@ -16,16 +16,20 @@
  */
 package org.moxie.proxy.connection;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.moxie.proxy.AccessTracker;
 import org.moxie.proxy.LuceneExecutor;
 import org.moxie.proxy.ProxyConfig;
+import org.moxie.proxy.ProxyMetrics;
 
 /**
  * Wait for connections from somewhere and pass them on to
@@ -37,14 +41,29 @@ import org.moxie.proxy.ProxyConfig;
 public class ProxyConnectionServer extends Thread {
 	public static final Logger log = Logger.getLogger(ProxyConnectionServer.class.getSimpleName());
 
+	private static final int KEEP_ALIVE_TIMEOUT = 60 * 1000;
+
 	private final ProxyConfig config;
 	private final LuceneExecutor lucene;
+	private final ProxyMetrics metrics;
+	private final AccessTracker tracker;
+	private final AccessLog accessLog;
+	private final FreshnessCache freshness;
+	private final Prefetcher prefetcher;
+	private final GzipCache gzip;
 	private final int port;
 	private ServerSocket socket;
 
-	public ProxyConnectionServer(ProxyConfig config, LuceneExecutor lucene) {
+	public ProxyConnectionServer(ProxyConfig config, LuceneExecutor lucene, ProxyMetrics metrics,
+			AccessTracker tracker) {
 		this.config = config;
 		this.lucene = lucene;
+		this.metrics = metrics;
+		this.tracker = tracker;
+		this.accessLog = config.getAccessLog() ? new AccessLog() : null;
+		this.freshness = new FreshnessCache();
+		this.prefetcher = new Prefetcher(config, lucene, metrics);
+		this.gzip = new GzipCache(config.getMoxieRoot(), new File(config.getMoxieRoot(), GzipCache.FOLDER));
 		this.port = config.getProxyPort();
 		
 		setDaemon(true);
@@ -55,6 +74,11 @@ public class ProxyConnectionServer extends Thread {
 
 	public void shutdown() {
 		run.set(false);
+		freshness.shutdown();
+		prefetcher.shutdown();
+		if (accessLog != null) {
+			accessLog.shutdown();
+		}
 	}
 
 	@Override
@@ -64,6 +88,9 @@ public class ProxyConnectionServer extends Thread {
 		}
 		
 		run.set(true);
+		if (accessLog != null) {
+			accessLog.start();
+		}
 		
 		try {
 			socket = new ServerSocket(port);
@@ -84,8 +111,16 @@ public class ProxyConnectionServer extends Thread {
 				continue;
 			}
 
+			try {
+				// close idle persistent connections
+				clientSocket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+			} catch (SocketException e) {
+				log.log(Level.WARNING, "Failed to set timeout for client connection", e);
+			}
+
 			config.reload();
-			Thread t = new ProxyRequestHandler(config, lucene, clientSocket);
+			Thread t = new ProxyRequestHandler(config, lucene, metrics, tracker, accessLog, freshness, prefetcher,
+					gzip, clientSocket);
 			t.start();
 		}
 
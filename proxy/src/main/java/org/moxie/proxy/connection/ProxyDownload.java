@@ -23,6 +23,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,6 +41,7 @@ import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.httpclient.util.DateUtil;
 import org.moxie.Proxy;
 import org.moxie.proxy.ProxyConfig;
+import org.moxie.proxy.ProxyMetrics;
 
 /**
  * Download a file via a proxy server and store it somewhere.
@@ -49,8 +52,13 @@ import org.moxie.proxy.ProxyConfig;
 public class ProxyDownload {
 	public static final Logger log = Logger.getLogger(ProxyDownload.class.getSimpleName());
 	private final ProxyConfig config;
+	private final ProxyMetrics metrics;
 	private final URL url;
 	private final File dest;
+	private long ifModifiedSince;
+	private String ifNoneMatch;
+	private boolean notModified;
+	private String etag;
 
 	/**
 	 * Download <code>url</code> to <code>dest</code>.
@@ -64,12 +72,47 @@ public class ProxyDownload {
 	 * @param dest
 	 *            Where to store it.
 	 */
-	public ProxyDownload(ProxyConfig config, URL url, File dest) {
+	public ProxyDownload(ProxyConfig config, ProxyMetrics metrics, URL url, File dest) {
 		this.config = config;
+		this.metrics = metrics;
 		this.url = url;
 		this.dest = dest;
 	}
 
+	/**
+	 * Makes the download conditional on the upstream resource having changed
+	 * since the specified date and/or no longer matching the specified entity
+	 * tag.
+	 * 
+	 * @param lastModified
+	 *            the last-modified date of the local copy, ignored if <= 0
+	 * @param etag
+	 *            the entity tag of the local copy, ignored if null
+	 */
+	public void setConditional(long lastModified, String etag) {
+		this.ifModifiedSince = lastModified;
+		this.ifNoneMatch = etag;
+	}
+
+	/**
+	 * Returns true if the upstream repository reported that the local copy is
+	 * still current.
+	 * 
+	 * @return true if the response was 304 Not Modified
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * Returns the entity tag of the upstream resource.
+	 * 
+	 * @return the ETag or null
+	 */
+	public String getETag() {
+		return etag;
+	}
+
 	/**
 	 * Do the download.
 	 * 
@@ -99,71 +142,108 @@ public class ProxyDownload {
 			client.getState().setProxyCredentials(scope, defaultcreds);
 			msg = "via proxy ";
 		}
-		log.info("Downloading " + msg + "to " + dest.getAbsolutePath());
+		log.fine("Downloading " + msg + "to " + dest.getAbsolutePath());
 
 		GetMethod get = new GetMethod(url.toString());
 		get.setFollowRedirects(true);
+		if (ifModifiedSince > 0) {
+			get.setRequestHeader("If-Modified-Since", DateUtil.formatDate(new Date(ifModifiedSince)));
+		}
+		if (ifNoneMatch != null) {
+			get.setRequestHeader("If-None-Match", ifNoneMatch);
+		}
+		metrics.downloadStarted();
+		long start = System.nanoTime();
+		String result = ProxyMetrics.FAILED;
+		long received = 0;
 		try {
 			int status = client.executeMethod(get);
 
-			log.info("Download status: " + status);
+			log.fine("Download status: " + status);
 			if (status == 1 && log.isLoggable(Level.FINE)) {
 				Header[] header = get.getResponseHeaders();
 				for (int i = 0; i < header.length; i++)
 					log.fine(header[i].toString().trim());
 			}
 
-			log.info("Content: " + valueOf(get.getResponseHeader("Content-Length")) + " bytes; "
+			log.fine("Content: " + valueOf(get.getResponseHeader("Content-Length")) + " bytes; "
 					+ valueOf(get.getResponseHeader("Content-Type")));
 
+			Header etagHeader = get.getResponseHeader("ETag");
+			if (etagHeader != null) {
+				etag = etagHeader.getValue();
+			}
+
+			if (status == HttpStatus.SC_NOT_MODIFIED) {
+				log.fine("Not modified " + url);
+				result = ProxyMetrics.NOT_MODIFIED;
+				notModified = true;
+				if (etag == null) {
+					etag = ifNoneMatch;
+				}
+				return;
+			}
+
 			if (status != HttpStatus.SC_OK) {
 				throw new DownloadFailed(get);
 			}
 
 			// Make sure the temporary file is created in
 			// the destination folder, otherwise
-			// dl.renameTo(dest) might not work
+			// moving dl to dest might not be atomic
 			// for example if you have a separate /tmp partition
 			// on Linux
 			File destinationFolder = dest.getParentFile();
 			dest.getParentFile().mkdirs();
 			File dl = File.createTempFile("moxie-", ".tmp", destinationFolder);
 			OutputStream out = new BufferedOutputStream(new FileOutputStream(dl));
-			copy(get.getResponseBodyAsStream(), out);
+			received = copy(get.getResponseBodyAsStream(), out);
 			out.close();
 			
 			// create folder structure after successful download
 			// - no, we create it before the download!
 			//dest.getParentFile().mkdirs();
 
-			if (dest.exists()) {
-				dest.delete();
-			}
-			dl.renameTo(dest);
-			
 			// preserve last-modified, if possible
 			try {
 				Header lastModified = get.getResponseHeader("Last-Modified");
 				if (lastModified != null) {				
 					Date date = DateUtil.parseDate(lastModified.getValue());				
-					dest.setLastModified(date.getTime());
+					dl.setLastModified(date.getTime());
 				}
 			} catch (Exception e) {
 				log.log(Level.WARNING, "could not parse \"last-modified\" for " + url, e);
 			}
+
+			// replace the destination atomically, the previous version may
+			// be served concurrently from an open stream
+			long previousLength = dest.length();
+			try {
+				Files.move(dl.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				dl.delete();
+				throw e;
+			}
+			config.adjustRepositorySize(config.getRepositoryId(dest), dest.length() - previousLength);
+			result = ProxyMetrics.OK;
 		} finally {
 			get.releaseConnection();
+			metrics.downloadFinished(result, received, System.nanoTime() - start);
 		}
 	}
 	
-	void copy(InputStream in, OutputStream out) throws IOException {
+	long copy(InputStream in, OutputStream out) throws IOException {
 		byte[] buffer = new byte[1024 * 100];
+		long total = 0;
 		int len;
 
 		while ((len = in.read(buffer)) != -1) {
 			out.write(buffer, 0, len);
+			total += len;
 		}
 		out.flush();
+		return total;
 	}
 
 
@@ -20,11 +20,12 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.MalformedURLException;
 import java.net.Socket;
-import java.net.SocketException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -33,8 +34,11 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.moxie.Constants;
+import org.moxie.proxy.AccessTracker;
 import org.moxie.proxy.LuceneExecutor;
 import org.moxie.proxy.ProxyConfig;
+import org.moxie.proxy.ProxyMetrics;
+import org.moxie.proxy.connection.HttpRequestParser.HttpMethod;
 
 /**
  * Handle a connection from a maven.
@@ -47,24 +51,28 @@ public class ProxyRequestHandler extends Thread {
 
 	private final ProxyConfig config;
 	private final LuceneExecutor lucene;
+	private final ProxyMetrics metrics;
+	private final AccessTracker tracker;
+	private final AccessLog accessLog;
+	private final FreshnessCache freshness;
+	private final Prefetcher prefetcher;
+	private final GzipCache gzip;
 	private Socket clientSocket;
+	private boolean keepAlive;
+	private boolean gzipAccepted;
+	private int status;
+	private long bytesServed;
 
-	private enum HttpMethod {
-		GET, HEAD;
-
-		static HttpMethod fromString(String val) {
-			for (HttpMethod method : values()) {
-				if (val.equals(method.name())) {
-					return method;
-				}
-			}
-			return null;
-		}
-	}
-
-	public ProxyRequestHandler(ProxyConfig config, LuceneExecutor lucene, Socket clientSocket) {
+	public ProxyRequestHandler(ProxyConfig config, LuceneExecutor lucene, ProxyMetrics metrics, AccessTracker tracker,
+			AccessLog accessLog, FreshnessCache freshness, Prefetcher prefetcher, GzipCache gzip, Socket clientSocket) {
 		this.config = config;
 		this.lucene = lucene;
+		this.metrics = metrics;
+		this.tracker = tracker;
+		this.accessLog = accessLog;
+		this.freshness = freshness;
+		this.prefetcher = prefetcher;
+		this.gzip = gzip;
 		this.clientSocket = clientSocket;
 	}
 
@@ -76,46 +84,30 @@ public class ProxyRequestHandler extends Thread {
 		try {
 			log.fine("Got connection from " + clientSocket.getInetAddress());
 
-			String line;
-			boolean keepAlive = false;
-			do {
-				HttpMethod method = null;
-				String downloadURL = null;
-				StringBuilder fullRequest = new StringBuilder(1024);
-				while ((line = readLine()) != null) {
-					if (line.length() == 0)
-						break;
-
-					// log.debug ("Got: "+line);
-					fullRequest.append(line);
-					fullRequest.append('\n');
-
-					if ("proxy-connection: keep-alive".equals(line.toLowerCase()))
-						keepAlive = true;
-
-					// parse HTTP method
-					int spc = line.indexOf(' ');
-					if (spc > -1) {
-						HttpMethod m = HttpMethod.fromString(line.substring(0, spc).trim());
-						if (m != null) {
-							int pos = line.lastIndexOf(' ');
-							line = line.substring(m.name().length(), pos);
-							downloadURL = line;
-							method = m;
-						}
+			HttpRequestParser request = new HttpRequestParser(clientSocket.getInputStream());
+			while (request.next()) {
+				keepAlive = request.isKeepAlive();
+				gzipAccepted = request.isGzipAccepted() && config.isCompressResponses();
+				HttpMethod method = request.getMethod();
+				String downloadURL = request.getUri();
+				long start = System.nanoTime();
+				status = 500;
+				bytesServed = 0;
+				try {
+					if (method == null) {
+						log.severe("Unsupported HTTP method " + request.getMethodName() + " " + downloadURL);
+						sendError(501, "HTTP/1.1 501 Not Implemented");
+					} else {
+						log.fine("Got request for " + method + " " + downloadURL);
+						handle(method, downloadURL);
 					}
+				} finally {
+					served(method, request.getMethodName(), downloadURL, System.nanoTime() - start);
 				}
-
-				if (downloadURL == null) {
-					if (line == null)
-						break;
-
-					log.severe("Found no URL to download in request:\n" + fullRequest.toString());
-				} else {
-					log.info("Got request for " + method + " " + downloadURL);
-					handle(method, downloadURL);
+				if (!keepAlive) {
+					break;
 				}
-			} while (line != null && keepAlive);
+			}
 
 			log.fine("Terminating connection with " + clientSocket.getInetAddress());
 		} catch (Exception e) {
@@ -125,6 +117,24 @@ public class ProxyRequestHandler extends Thread {
 		}
 	}
 
+	/**
+	 * Records a served request in the metrics and the access log.
+	 * 
+	 * @param method
+	 *            the parsed method, null if unsupported
+	 * @param methodName
+	 *            the method name sent by the client
+	 * @param url
+	 * @param nanos
+	 */
+	private void served(HttpMethod method, String methodName, String url, long nanos) {
+		// unsupported methods share a label to bound the metric cardinality
+		metrics.request(method == null ? "OTHER" : method.name(), status, bytesServed, nanos);
+		if (accessLog != null) {
+			accessLog.log(clientSocket.getInetAddress(), methodName, url, status, bytesServed, nanos);
+		}
+	}
+
 	public void close() {
 		try {
 			if (out != null)
@@ -134,14 +144,6 @@ public class ProxyRequestHandler extends Thread {
 		}
 		out = null;
 
-		try {
-			if (in != null)
-				in.close();
-		} catch (Exception e) {
-			log.log(Level.SEVERE, "Exception while closing the inputstream", e);
-		}
-		in = null;
-
 		try {
 			if (clientSocket != null)
 				clientSocket.close();
@@ -151,73 +153,203 @@ public class ProxyRequestHandler extends Thread {
 		clientSocket = null;
 	}
 
+	/**
+	 * Handles a request. Failures which occur before the response is started
+	 * are answered with an error response so that the connection can serve
+	 * the next request.
+	 *
+	 * @param method
+	 * @param downloadURL
+	 * @throws IOException
+	 *             if the response could not be written
+	 */
 	private void handle(HttpMethod method, String downloadURL) throws IOException {
-		URL url = new URL(downloadURL);
-		url = config.getRedirect(url);
+		URL url;
+		try {
+			url = config.getRedirect(new URL(downloadURL));
+		} catch (MalformedURLException e) {
+			log.warning("Malformed url, got " + downloadURL);
+			sendError(400, "HTTP/1.1 400 Bad Request");
+			return;
+		}
 
-		if (!"http".equals(url.getProtocol()))
-			throw new IOException("Can only handle HTTP requests, got " + downloadURL);
+		if (!"http".equals(url.getProtocol())) {
+			log.warning("Can only handle HTTP requests, got " + downloadURL);
+			sendError(400, "HTTP/1.1 400 Bad Request");
+			return;
+		}
 
 		File f = config.getRemoteArtifact(url);
 		if (f == null) {
-			throw new IOException("Unregistered remote repository, got " + downloadURL);
+			log.warning("Unregistered remote repository, got " + downloadURL);
+			sendError(403, "HTTP/1.1 403 Forbidden");
+			return;
 		}
 		String name = f.getName();
 		String path = f.getPath().replace('\\', '/');
-
-		// ensure we have the requested artifact or the latest version
-		// of the requested artifact
-		if (name.contains("-SNAPSHOT")
+		boolean isVolatile = name.contains("-SNAPSHOT")
 				|| name.contains("maven-metadata")
 				|| path.contains("/.m2e/")
 				|| path.contains("/.meta/")
-				|| path.contains("/.nexus/")
-				|| !f.exists()) {
-			ProxyDownload d = new ProxyDownload(config, url, f);
-			try {
-				d.download();
+				|| path.contains("/.nexus/");
 
-				// index this artifact's pom
-				if (name.toLowerCase().endsWith(Constants.POM)) {
-					lucene.index(f);
-				}
+		if (!f.exists()) {
+			// retrieve the artifact
+			metrics.cache(ProxyMetrics.MISS);
+			try {
+				fetch(url, f);
 			} catch (DownloadFailed e) {
 				log.severe(e.getMessage());
-				if (!f.exists()) {
-					// return failure
-					println(e.getStatusLine());
-					println();
-					getOut().flush();
-					return;
-				} else {
+				// return failure
+				sendError(e.getStatusCode(), e.getStatusLine());
+				return;
+			} catch (IOException e) {
+				log.log(Level.SEVERE, "Failed to retrieve " + url, e);
+				sendError(502, "HTTP/1.1 502 Bad Gateway");
+				return;
+			}
+		} else if (isVolatile) {
+			// ensure we have the latest version of the requested artifact
+			String repository = config.getRepositoryId(url);
+			long maxAge = config.getMetadataMaxAge(repository) * 1000L;
+			long staleAge = maxAge + config.getStaleWhileRevalidate(repository) * 1000L;
+			long age = freshness.getAge(f);
+			if (age <= maxAge) {
+				log.fine("Serving fresh copy from local cache " + f.getAbsolutePath());
+				metrics.cache(ProxyMetrics.HIT);
+			} else if (age <= staleAge) {
+				log.fine("Serving stale copy from local cache " + f.getAbsolutePath());
+				metrics.cache(ProxyMetrics.STALE);
+				revalidate(url, f);
+			} else {
+				metrics.cache(ProxyMetrics.MISS);
+				try {
+					fetch(url, f);
+				} catch (DownloadFailed e) {
+					log.severe(e.getMessage());
+					log.fine("Serving from local cache " + f.getAbsolutePath());
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Failed to retrieve " + url, e);
 					log.fine("Serving from local cache " + f.getAbsolutePath());
 				}
 			}
 		} else {
 			log.fine("Serving from local cache " + f.getAbsolutePath());
+			metrics.cache(ProxyMetrics.HIT);
+		}
+
+		// record the access for the eviction of cold artifacts
+		tracker.touch(f);
+
+		// select the gzip variant for text artifacts, if the client accepts it
+		File entity = f;
+		byte[] compressed = null;
+		if (gzipAccepted && GzipCache.isCompressible(f, getContentType(f))) {
+			if (isVolatile) {
+				// compress metadata and snapshots on-the-fly
+				compressed = GzipCache.compress(f);
+			} else {
+				// release artifacts are immutable, compress them once
+				File gz = gzip.getCompressed(f);
+				if (gz != null) {
+					entity = gz;
+				}
+			}
 		}
 
 		// now that we have the artifact, handle the client's request
 		switch (method) {
 		case HEAD:
-			handleHEAD(f);
+			handleHEAD(f, entity, compressed);
 			break;
 		case GET:
-			handleGET(f);
+			handleGET(f, entity, compressed);
 			break;
 		default:
 			log.warning("Unimplemented HTTP method " + method);
+			sendError(501, "HTTP/1.1 501 Not Implemented");
 			break;
 		}
 	}
 
+	/**
+	 * Sends an error response without a body.
+	 *
+	 * @param code
+	 *            the status code
+	 * @param statusLine
+	 * @throws IOException
+	 */
+	private void sendError(int code, String statusLine) throws IOException {
+		status = code;
+		println(statusLine);
+		setConnectionHeaders(0);
+		println();
+		getOut().flush();
+	}
+
+	/**
+	 * Downloads the artifact from the upstream repository. If a local copy
+	 * exists, the download is conditional on the upstream artifact having
+	 * changed.
+	 *
+	 * @param url
+	 * @param f
+	 * @throws IOException
+	 * @throws DownloadFailed
+	 */
+	private void fetch(URL url, File f) throws IOException, DownloadFailed {
+		ProxyDownload d = new ProxyDownload(config, metrics, url, f);
+		if (f.exists()) {
+			d.setConditional(f.lastModified(), freshness.getETag(f));
+		}
+		d.download();
+		freshness.validated(f, d.getETag());
+
+		// index this artifact's pom and prefetch its dependencies
+		if (!d.isNotModified() && f.getName().toLowerCase().endsWith(Constants.POM)) {
+			lucene.index(f);
+			prefetcher.prefetch(url, f);
+		} else if (!d.isNotModified()) {
+			// queue a jar for the class index
+			lucene.indexClasses(f);
+		}
+	}
+
+	/**
+	 * Asynchronously revalidates a stale local copy of an artifact.
+	 *
+	 * @param url
+	 * @param f
+	 */
+	private void revalidate(final URL url, final File f) {
+		freshness.revalidate(f, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					fetch(url, f);
+				} catch (DownloadFailed e) {
+					log.warning(e.getMessage());
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Failed to revalidate " + url, e);
+				}
+			}
+		});
+	}
+
 	/**
 	 * Set the http headers for the request.
 	 *
 	 * @param file
+	 *            the artifact
+	 * @param contentLength
+	 *            the length of the transferred entity
+	 * @param gzipped
+	 *            true if the transferred entity is gzip compressed
 	 * @throws IOException
 	 */
-	private void setHeaders(File file) throws IOException {
+	private void setHeaders(File file, long contentLength, boolean gzipped) throws IOException {
+		status = 200;
 		println("HTTP/1.1 200 OK");
 		println("Server: moxieproxy/" + org.moxie.proxy.Constants.getVersion());
 
@@ -227,29 +359,61 @@ public class ProxyRequestHandler extends Thread {
 		print("Last-modified: ");
 		println(INTERNET_FORMAT.format(new Date(file.lastModified())));
 
-		print("Content-length: ");
-		println(String.valueOf(file.length()));
+		setConnectionHeaders(contentLength);
 
+		String type = getContentType(file);
 		print("Content-type: ");
+		println(type);
+		if (gzipped) {
+			println("Content-encoding: gzip");
+		}
+		if (config.isCompressResponses() && GzipCache.isText(type)) {
+			println("Vary: Accept-Encoding");
+		}
+		println();
+	}
+
+	private String getContentType(File file) {
 		String ext = file.getName().substring(file.getName().lastIndexOf('.') + 1).toLowerCase();
 		String type = CONTENT_TYPES.get(ext);
 		if (type == null) {
 			log.warning("Unknown extension " + ext + ". Using content type text/plain.");
 			type = "text/plain";
 		}
-		println(type);
-		println();
+		return type;
+	}
+
+	/**
+	 * Set the content length and connection persistence headers.
+	 *
+	 * @param contentLength
+	 * @throws IOException
+	 */
+	private void setConnectionHeaders(long contentLength) throws IOException {
+		print("Content-length: ");
+		println(String.valueOf(contentLength));
+		if (keepAlive) {
+			println("Connection: keep-alive");
+		} else {
+			println("Connection: close");
+		}
 	}
 
 	/**
 	 * HEAD requests are used to determine the current status of a resource.
 	 *
 	 * @param file
+	 *            the artifact
+	 * @param entity
+	 *            the artifact or its cached gzip variant
+	 * @param compressed
+	 *            the gzip variant compressed in memory, may be null
 	 * @throws IOException
 	 */
-	protected void handleHEAD(File file) throws IOException {
+	protected void handleHEAD(File file, File entity, byte[] compressed) throws IOException {
 		// set the http headers for the file
-		setHeaders(file);
+		long length = compressed == null ? entity.length() : compressed.length;
+		setHeaders(file, length, compressed != null || entity != file);
 		out.flush();
 	}
 
@@ -257,26 +421,52 @@ public class ProxyRequestHandler extends Thread {
 	 * GET requests are used to retrieve a resource.
 	 *
 	 * @param file
+	 *            the artifact
+	 * @param entity
+	 *            the artifact or its cached gzip variant
+	 * @param compressed
+	 *            the gzip variant compressed in memory, may be null
 	 * @throws IOException
 	 */
-	protected void handleGET(File file) throws IOException {
-		// set the http headers for the file
-		setHeaders(file);
+	protected void handleGET(File file, File entity, byte[] compressed) throws IOException {
+		if (compressed != null) {
+			setHeaders(file, compressed.length, true);
+			out.write(compressed);
+			out.flush();
+			bytesServed = compressed.length;
+			return;
+		}
 
-		// load the file for streaming back to the client
-		InputStream data = new BufferedInputStream(new FileInputStream(file));
-		copy(data, out);
-		data.close();
+		// open the file before sending the headers, a concurrent revalidation
+		// may replace the file but the open stream keeps reading the version
+		// whose length is sent
+		FileInputStream fis;
+		try {
+			fis = new FileInputStream(entity);
+		} catch (FileNotFoundException e) {
+			// evicted concurrently
+			sendError(404, "HTTP/1.1 404 Not Found");
+			return;
+		}
+		try {
+			setHeaders(file, fis.getChannel().size(), entity != file);
+			bytesServed = copy(new BufferedInputStream(fis), out);
+		} finally {
+			fis.close();
+		}
 	}
 
-	void copy(InputStream in, OutputStream out) throws IOException {
+	long copy(InputStream in, OutputStream out) throws IOException {
 		byte[] buffer = new byte[1024 * 100];
+		long total = 0;
 		int len;
 
 		while ((len = in.read(buffer)) != -1) {
 			out.write(buffer, 0, len);
+			total += len;
 		}
 		out.flush();
+		return total;
 	}
 
 
@@ -326,39 +516,4 @@ public class ProxyRequestHandler extends Thread {
 
 		return out;
 	}
-
-	private BufferedInputStream in;
-
-	private String readLine() throws IOException {
-		if (in == null)
-			in = new BufferedInputStream(clientSocket.getInputStream());
-
-		StringBuilder buffer = new StringBuilder(256);
-		int c;
-
-		try {
-			while ((c = in.read()) != -1) {
-				if (c == '\r')
-					continue;
-
-				if (c == '\n')
-					break;
-
-				buffer.append((char) c);
-			}
-		} catch (SocketException e) {
-			if ("connection reset".equals(e.getMessage().toLowerCase()))
-				return null;
-
-			throw e;
-		}
-
-		if (c == -1)
-			return null;
-
-		if (buffer.length() == 0)
-			return "";
-
-		return buffer.toString();
-	}
 }
@@ -16,6 +16,7 @@
 package org.moxie.proxy.resources;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -25,15 +26,20 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.moxie.Dependency;
 import org.moxie.Pom;
 import org.moxie.RemoteRepository;
 import org.moxie.Scope;
 import org.moxie.proxy.Constants;
 import org.moxie.proxy.DependencyLink;
+import org.moxie.proxy.PageCache;
+import org.moxie.proxy.PageCache.Page;
 import org.moxie.utils.FileUtils;
 import org.moxie.utils.StringUtils;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Tag;
 import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
 import org.restlet.resource.Get;
 
 public class ArtifactsResource extends BaseResource {
@@ -288,14 +294,7 @@ public class ArtifactsResource extends BaseResource {
 			return null;
 		}
 		// find dependencies as they might be in another local/proxied repository
-		List<DependencyLink> list = new ArrayList<DependencyLink>();
-		for (Dependency dependency : pom.getDependencies(true)) {
-			DependencyLink link = getProxyConfig().find(dependency);
-			if (link != null) {
-				list.add(link);
-			}
-		}
-		return list;
+		return getApplication().find(pom.getDependencies(true));
 	}
 
 	@Get
@@ -306,6 +305,15 @@ public class ArtifactsResource extends BaseResource {
 			// TODO proxy download?  do not know source repo, try all?
 			getLogger().warning(path + " does not exist!");
 		}
+
+		// serve a cached page if the folder or file has not changed
+		PageCache cache = getApplication().getPageCache();
+		String key = getPageKey(path);
+		long generation = getProxyConfig().getLastModified();
+		Page page = cache.get(key, file.lastModified(), generation);
+		if (page != null) {
+			return toRepresentation(page);
+		}
 		
 		Map<String, Object> map = new HashMap<String, Object>();
 		map.put("title", Constants.getName());
@@ -327,7 +335,7 @@ public class ArtifactsResource extends BaseResource {
 				String content = FileUtils.readContent(file, "\n").trim();
 				String html = StringUtils.escapeForHtml(content, true);
 				map.put("content", html);
-				return toHtml(map, "artifact.html");
+				return cache(key, file, generation, toHtml(map, "artifact.html"));
 			}
 		}
 				
@@ -344,7 +352,49 @@ public class ArtifactsResource extends BaseResource {
 		map.put("grapeSnippet", getGrapeSnippet(pom));
 		map.put("ivySnippet", getIvySnippet(pom));
 		map.put("items", getItems(file));
-		return toHtml(map, "artifacts.html");
+		Representation html = toHtml(map, "artifacts.html");
+		if (pom != null && !pom.isSnapshot()) {
+			// release folders do not change after deployment
+			return cache(key, file, generation, html);
+		}
+		return html;
+	}
+
+	/**
+	 * Returns the page cache key. Pages depend on the request root, which is
+	 * embedded in links and snippets, and on the translation.
+	 */
+	String getPageKey(String path) {
+		return getRootRef() + "/" + getBasePath() + "/" + (path == null ? "" : path) + "|"
+				+ getTranslation().getLocale();
+	}
+
+	/**
+	 * Renders and caches a page.
+	 */
+	Representation cache(String key, File file, long generation, Representation html) {
+		if (!file.exists()) {
+			return html;
+		}
+		try {
+			Page page = getApplication().getPageCache().put(key, file.lastModified(), generation, html.getText());
+			return toRepresentation(page);
+		} catch (IOException e) {
+			getLogger().warning("Failed to render " + key + ": " + e.getMessage());
+			return html;
+		}
+	}
+
+	/**
+	 * Returns a cached page with its validators. Restlet answers conditional
+	 * requests which match the validators with 304 Not Modified.
+	 */
+	Representation toRepresentation(Page page) {
+		StringRepresentation html = new StringRepresentation(page.content, MediaType.TEXT_HTML, null,
+				CharacterSet.UTF_8);
+		html.setTag(new Tag(page.etag, false));
+		html.setModificationDate(new Date(page.lastModified));
+		return html;
 	}
 	
 	boolean isText(File file) {
@@ -16,6 +16,10 @@
 package org.moxie.proxy.resources;
 
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.ListResourceBundle;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
@@ -35,6 +39,59 @@ import org.restlet.resource.ServerResource;
 
 public abstract class BaseResource extends ServerResource {
 
+	/**
+	 * Bounds the caches below because their keys are sent by the clients.
+	 */
+	private static final int MAX_CACHED = 256;
+
+	/**
+	 * Stands for the root reference in the cached menus. The root reference
+	 * is derived from the Host header, so it is inserted at render time.
+	 */
+	private static final String ROOT_REF = "\u0000rootRef\u0000";
+
+	/**
+	 * Marks a requested locale for which no translation is available.
+	 */
+	private static final ResourceBundle NO_TRANSLATION = new ListResourceBundle() {
+		@Override
+		protected Object[][] getContents() {
+			return new Object[0][];
+		}
+	};
+
+	private static final Map<String, Object> APP_MODEL = createAppModel();
+
+	private static final Map<String, ResourceBundle> TRANSLATIONS = createCache();
+
+	private static final Map<String, String> MENUS = createCache();
+
+	private ResourceBundle translation;
+
+	private static Map<String, Object> createAppModel() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("appName", Constants.getName());
+		map.put("appVersion", Constants.getVersion());
+		map.put("appUrl", Constants.getUrl());
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Creates a cache which drops the least recently used entry when it is
+	 * full.
+	 */
+	private static <V> Map<String, V> createCache() {
+		return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > MAX_CACHED;
+			}
+		});
+	}
+
 	@Override
 	public MoxieProxy getApplication() {
 		return (MoxieProxy) super.getApplication();
@@ -85,10 +142,8 @@ public abstract class BaseResource extends ServerResource {
 	protected abstract String getBasePathName();
 
 	protected Representation toHtml(Map<String, Object> map, String templateName) {
-		map.put("appName", Constants.getName());
-		map.put("appVersion", Constants.getVersion());
-		map.put("appUrl", Constants.getUrl());
-		map.put("appMenu", buildMenu());
+		map.putAll(APP_MODEL);
+		map.put("appMenu", getMenu());
 		map.put("rc", getTranslation());
 		map.put("baseRef", getRootRef());
 		map.put("user", getUser());
@@ -99,6 +154,21 @@ public abstract class BaseResource extends ServerResource {
 		return template;
 	}
 
+	/**
+	 * Returns the menu of the page. The repositories are not reloaded, so the
+	 * menu only depends on the page and the translation. The root reference
+	 * of the request is inserted into the cached menu.
+	 */
+	private String getMenu() {
+		String key = getBasePath() + "|" + getTranslation().getLocale();
+		String menu = MENUS.get(key);
+		if (menu == null) {
+			menu = buildMenu();
+			MENUS.put(key, menu);
+		}
+		return menu.replace(ROOT_REF, getRootRef().toString());
+	}
+
 	private String buildMenu() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("\n<ul class='nav'>\n");
@@ -116,6 +186,10 @@ public abstract class BaseResource extends ServerResource {
 			}
 		}
 		sb.append(menuItem("search", getTranslation().getString("mp.search"), "", "<i class=\"icon-search icon-white\"></i>", "hidden-desktop"));		
+		sb.append(menuItem("classes", getTranslation().getString("mp.classSearch"), "", "<i class=\"icon-search icon-white\"></i>", ""));
+		if (getProxyConfig().isAllowSync() && !getProxyConfig().getRemoteRepositories().isEmpty()) {
+			sb.append(menuItem("sync", getTranslation().getString("mp.sync"), "", "<i class=\"icon-refresh icon-white\"></i>", ""));
+		}
 		sb.append("</ul>\n");
 		return sb.toString();
 	}
@@ -133,13 +207,16 @@ public abstract class BaseResource extends ServerResource {
 	protected String menuItem(String basePath, String name, String tooltip, String icon, String cssClass) {
 		if (basePath.equals(getBasePath())) {
 			return MessageFormat.format("\t\t<li class=''active {5}''><a title=''{4}'' href=''{0}/{1}''>{2} {3}</a></li>\n",
-					getRootRef(), basePath, name, icon, tooltip, cssClass);
+					ROOT_REF, basePath, name, icon, tooltip, cssClass);
 		}
-		return MessageFormat.format("\t\t<li class=''{5}''><a title=''{4}'' href=''{0}/{1}''>{2} {3}</a></li>\n", getRootRef(), basePath,
+		return MessageFormat.format("\t\t<li class=''{5}''><a title=''{4}'' href=''{0}/{1}''>{2} {3}</a></li>\n", ROOT_REF, basePath,
 				name, icon, tooltip, cssClass);
 	}
 
 	protected ResourceBundle getTranslation() {
+		if (translation != null) {
+			return translation;
+		}
 		// determine translation to load into template
 		ResourceBundle bundle = null;
 		for (Preference<Language> preference : getRequest().getClientInfo().getAcceptedLanguages()) {
@@ -150,19 +227,13 @@ public abstract class BaseResource extends ServerResource {
 			// determine locale name and lang
 			// e.g. en_us and en
 			String localeName = preference.getMetadata().getName().replace('-', '_');
-			String lang = localeName;
-			if (lang.indexOf('_') > -1) {
-				lang = lang.substring(0, lang.indexOf('_'));
+			ResourceBundle resolved = TRANSLATIONS.get(localeName);
+			if (resolved == null) {
+				resolved = getTranslation(localeName);
+				TRANSLATIONS.put(localeName, resolved);
 			}
-			for (Locale locale : Locale.getAvailableLocales()) {
-				if (locale.toString().equalsIgnoreCase(localeName) || locale.toString().equals(lang)) {
-					// exact locale match or available language match
-					bundle = ResourceBundle.getBundle("translations", locale);
-					if (bundle.getLocale().equals(locale)) {
-						// this really is the requested locale
-						break;
-					}
-				}
+			if (resolved != NO_TRANSLATION) {
+				bundle = resolved;
 			}
 		}
 
@@ -170,6 +241,33 @@ public abstract class BaseResource extends ServerResource {
 			// default translation
 			bundle = ResourceBundle.getBundle("translations");
 		}
+		translation = bundle;
+		return bundle;
+	}
+
+	/**
+	 * Resolves the translation of a requested locale.
+	 * 
+	 * @param localeName
+	 *            e.g. en_us
+	 * @return the translation or NO_TRANSLATION
+	 */
+	private static ResourceBundle getTranslation(String localeName) {
+		String lang = localeName;
+		if (lang.indexOf('_') > -1) {
+			lang = lang.substring(0, lang.indexOf('_'));
+		}
+		ResourceBundle bundle = NO_TRANSLATION;
+		for (Locale locale : Locale.getAvailableLocales()) {
+			if (locale.toString().equalsIgnoreCase(localeName) || locale.toString().equals(lang)) {
+				// exact locale match or available language match
+				bundle = ResourceBundle.getBundle("translations", locale);
+				if (bundle.getLocale().equals(locale)) {
+					// this really is the requested locale
+					break;
+				}
+			}
+		}
 		return bundle;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.resources;
+
+import java.io.IOException;
+
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+
+/**
+ * Serves the proxy metrics in the Prometheus text exposition format.
+ *
+ * @author James Moger
+ *
+ */
+public class MetricsResource extends BaseResource {
+
+	@Override
+	protected String getBasePath() {
+		return "metrics";
+	}
+
+	@Override
+	protected String getBasePathName() {
+		return "metrics";
+	}
+
+	@Get("txt")
+	public Representation toText() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		getApplication().getMetrics().write(sb);
+		StringRepresentation text = new StringRepresentation(sb, MediaType.TEXT_PLAIN);
+		text.setCharacterSet(CharacterSet.UTF_8);
+		return text;
+	}
+}
@@ -50,7 +50,7 @@ public class RootResource extends BaseResource {
 			for (String repository : getProxyConfig().getLocalRepositories()) {				
 				sb.append(MessageFormat.format(pattern, 
 						repository, 
-						getApplication().getRepositorySize(repository),
+						getRepositorySize(repository),
 						getApplication().getArtifactCount(repository),
 						getTranslation().getString("mp.artifacts")));
 			}
@@ -65,7 +65,7 @@ public class RootResource extends BaseResource {
 			for (RemoteRepository repository : getProxyConfig().getRemoteRepositories()) {
 				sb.append(MessageFormat.format(pattern, 
 						repository.id, 
-						getApplication().getRepositorySize(repository.id),
+						getRepositorySize(repository.id),
 						getApplication().getArtifactCount(repository.id),
 						getTranslation().getString("mp.artifactsFrom"),
 						repository.url));
@@ -105,6 +105,15 @@ public class RootResource extends BaseResource {
 		}
 		return sb.toString();
 	}
+
+	private String getRepositorySize(String repository) {
+		String size = getApplication().getRepositorySize(repository);
+		if (size == null) {
+			// the repository is measured in the background after startup
+			return getTranslation().getString("mp.measuring");
+		}
+		return size;
+	}
 	
 	@Get
 	public Representation toText() {
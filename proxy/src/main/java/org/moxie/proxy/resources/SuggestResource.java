@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.resources;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.moxie.utils.StringUtils;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+
+/**
+ * Lightweight typeahead endpoint which returns a JSON array of artifact
+ * coordinates for partially typed search text.
+ *
+ * @author James Moger
+ *
+ */
+public class SuggestResource extends BaseResource {
+
+	private static final int DEFAULT_COUNT = 10;
+
+	private static final int MAX_COUNT = 50;
+
+	@Override
+	protected String getBasePath() {
+		return "suggest";
+	}
+
+	@Override
+	protected String getBasePathName() {
+		return getTranslation().getString("mp.search");
+	}
+
+	@Get("json")
+	public Representation toJson() {
+		String query = getQueryValue("query", "");
+		int count = Math.min(MAX_COUNT, getQueryValue("count", DEFAULT_COUNT));
+
+		List<String> suggestions;
+		if (StringUtils.isEmpty(query)) {
+			suggestions = new ArrayList<String>();
+		} else {
+			suggestions = getApplication().suggest(query, count);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append('[');
+		for (int i = 0; i < suggestions.size(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			appendString(sb, suggestions.get(i));
+		}
+		sb.append(']');
+		StringRepresentation json = new StringRepresentation(sb, MediaType.APPLICATION_JSON);
+		json.setCharacterSet(CharacterSet.UTF_8);
+		return json;
+	}
+
+	private void appendString(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.resources;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.moxie.proxy.Constants;
+import org.moxie.proxy.SyncJob;
+import org.moxie.proxy.SyncJob.Source;
+import org.moxie.proxy.SyncManager;
+import org.restlet.data.Form;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.Post;
+
+/**
+ * Starts sync jobs which pre-seed the proxied repositories and shows their
+ * progress.
+ *
+ * @author James Moger
+ *
+ */
+public class SyncResource extends BaseResource {
+
+	@Override
+	protected String getBasePath() {
+		return "sync";
+	}
+
+	@Override
+	protected String getBasePathName() {
+		return getTranslation().getString("mp.sync");
+	}
+
+	@Get
+	public Representation toText() {
+		SyncManager manager = getApplication().getSyncManager();
+		List<SyncJob> jobs;
+		String id = getRequestAttribute("job");
+		if (id == null) {
+			jobs = manager.getJobs();
+		} else {
+			SyncJob job = getJob(id);
+			if (job == null) {
+				setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+				return null;
+			}
+			jobs = Arrays.asList(job);
+		}
+
+		boolean active = false;
+		for (SyncJob job : jobs) {
+			active |= job.isActive();
+		}
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("title", Constants.getName());
+		map.put("pageTitle", getTranslation().getString("mp.sync"));
+		map.put("jobs", jobs);
+		map.put("detail", id != null);
+		map.put("refresh", active);
+		map.put("repositories", getProxyConfig().getRemoteRepositories());
+		map.put("sources", Source.values());
+		return toHtml(map, "sync.html");
+	}
+
+	@Post("form")
+	public void submit(Representation entity) {
+		Form form = new Form(entity);
+		SyncManager manager = getApplication().getSyncManager();
+		String cancel = form.getFirstValue("cancel");
+		if (cancel != null) {
+			SyncJob job = getJob(cancel);
+			if (job != null) {
+				job.cancel();
+			}
+			getResponse().redirectSeeOther(getRootRef() + "/sync");
+			return;
+		}
+
+		SyncJob job = manager.submit(form.getFirstValue("repository"), Source.fromName(form.getFirstValue("source")),
+				form.getFirstValue("input"));
+		if (job == null) {
+			setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "Unknown repository or source");
+			return;
+		}
+		getResponse().redirectSeeOther(getRootRef() + "/sync/" + job.getId());
+	}
+
+	private SyncJob getJob(String id) {
+		try {
+			return getApplication().getSyncManager().getJob(Integer.parseInt(id));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.moxie.utils.FileUtils;
+
+public class AccessTrackerTest extends TestCase {
+
+	File folder;
+
+	public void testTouch() throws Exception {
+		File version = new File(folder, "org/x/1.0");
+		version.mkdirs();
+		version.setLastModified(1000);
+		AccessTracker tracker = new AccessTracker(new File(folder, "access.dat"));
+		assertEquals(version.lastModified(), tracker.getLastAccess(version));
+
+		long before = System.currentTimeMillis();
+		tracker.touch(new File(version, "x-1.0.jar"));
+		assertTrue(tracker.getLastAccess(version) >= before);
+
+		tracker.remove(version);
+		assertEquals(version.lastModified(), tracker.getLastAccess(version));
+	}
+
+	public void testPersistence() throws Exception {
+		File version = new File(folder, "org/x/1.0");
+		version.mkdirs();
+		version.setLastModified(1000);
+		File file = new File(folder, "access.dat");
+		AccessTracker tracker = new AccessTracker(file);
+		tracker.touch(new File(version, "x-1.0.pom"));
+		long access = tracker.getLastAccess(version);
+		tracker.save();
+
+		AccessTracker loaded = new AccessTracker(file);
+		loaded.load();
+		assertEquals(access, loaded.getLastAccess(version));
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		folder = new File(System.getProperty("java.io.tmpdir"), "moxie-access-" + System.nanoTime());
+		folder.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.delete(folder);
+		super.tearDown();
+	}
+}
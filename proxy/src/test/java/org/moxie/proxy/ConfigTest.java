@@ -73,6 +73,32 @@ public class ConfigTest extends TestCase {
 						"http://people.apache.org/maven-snapshot-repository/org/apache/maven/plugins/maven-source-plugin/")));
 	}
 
+	public void testRemoteRepositoryRouting() throws Exception {
+		assertEquals("central", config.getRepositoryId(new URL("https://repo1.maven.org/maven2/org/x/1.0/x-1.0.pom")));
+		assertEquals("restlet", config.getRepositoryId(new URL("https://maven.restlet.talend.com/org/restlet/x.pom")));
+		assertNull(config.getRepositoryId(new URL("https://repo2.maven.org/maven2/org/x/1.0/x-1.0.pom")));
+
+		File file = config.getRemoteArtifact(new URL("https://repo1.maven.org/maven2/org/x/1.0/x-1.0.pom"));
+		assertTrue(file.getPath().replace('\\', '/').endsWith("repo1.maven.org_maven2/org/x/1.0/x-1.0.pom"));
+		assertEquals("central", config.getRepositoryId(file));
+	}
+
+	public void testRepositoryQuota() throws Exception {
+		assertEquals(1024L * 1024 * 1024, config.getRepositoryQuota("central"));
+		assertEquals(100L * 1024 * 1024, config.getRepositoryQuota("restlet"));
+		assertEquals(0, config.getRepositoryQuota("releases"));
+	}
+
+	public void testFirstRuleWins() throws Exception {
+		PrefixMatcher<String> matcher = new PrefixMatcher<String>();
+		matcher.add("http://a/b/", "first");
+		matcher.add("http://a/b/c/", "second");
+		matcher.add("http://a/", "third");
+		assertEquals("first", matcher.match("http://a/b/c/d"));
+		assertEquals("third", matcher.match("http://a/x"));
+		assertNull(matcher.match("http://b/"));
+	}
+
 	@Override
 	protected void setUp() throws Exception {
 		super.setUp();
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class CoordinateAnalyzerTest extends TestCase {
+
+	public void testTokenize() throws Exception {
+		assertEquals(Arrays.asList("org", "moxie", "common", "2"), CoordinateAnalyzer.tokenize("org.Moxie-Common_2"));
+		assertEquals(Arrays.asList("commons", "lang3"), CoordinateAnalyzer.tokenize("*commons-lang3*"));
+		assertEquals(Arrays.asList(), CoordinateAnalyzer.tokenize("*.-"));
+	}
+
+	public void testPrefixTerm() throws Exception {
+		assertEquals("moxie", CoordinateAnalyzer.prefixTerm("moxie"));
+		// tokens are indexed with edge ngrams up to the maximum gram length
+		assertEquals("abcdefghijklmnopqrst", CoordinateAnalyzer.prefixTerm("abcdefghijklmnopqrstuvwxyz"));
+	}
+
+	public void testSuffixTerm() throws Exception {
+		assertEquals("nommoc", CoordinateAnalyzer.suffixTerm("common"));
+		assertEquals("", CoordinateAnalyzer.suffixTerm(""));
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import junit.framework.TestCase;
+
+public class CredentialCacheTest extends TestCase {
+
+	public void testVerify() throws Exception {
+		CredentialCache cache = new CredentialCache(60000, 10);
+		assertFalse(cache.isValid("alice", "secret".toCharArray()));
+		cache.put("alice", "secret".toCharArray());
+		assertTrue(cache.isValid("alice", "secret".toCharArray()));
+		assertFalse(cache.isValid("alice", "Secret".toCharArray()));
+		assertFalse(cache.isValid("alicesecret", "".toCharArray()));
+		cache.remove("alice");
+		assertFalse(cache.isValid("alice", "secret".toCharArray()));
+	}
+
+	public void testExpiration() throws Exception {
+		CredentialCache cache = new CredentialCache(0, 10);
+		cache.put("alice", "secret".toCharArray());
+		assertFalse(cache.isValid("alice", "secret".toCharArray()));
+		assertEquals(0, cache.size());
+	}
+
+	public void testCapacity() throws Exception {
+		CredentialCache cache = new CredentialCache(60000, 3);
+		for (int i = 0; i < 10; i++) {
+			cache.put("user" + i, "secret".toCharArray());
+			assertTrue(cache.size() <= 3);
+		}
+		assertTrue(cache.isValid("user9", "secret".toCharArray()));
+	}
+}
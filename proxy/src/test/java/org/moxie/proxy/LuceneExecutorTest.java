@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.moxie.utils.FileUtils;
+
+public class LuceneExecutorTest extends TestCase {
+
+	File folder;
+
+	ProxyConfig config;
+
+	private String query(String text) throws Exception {
+		return LuceneExecutor.createQuery(text, false).toString();
+	}
+
+	private void pom(String artifactId, String date) throws Exception {
+		File dir = new File(config.getMavenCache("releases").getRootFolder(), "org/moxie/" + artifactId + "/1.0");
+		dir.mkdirs();
+		File file = new File(dir, artifactId + "-1.0.pom");
+		FileUtils.writeContent(file, "<project>\n<modelVersion>4.0.0</modelVersion>\n<groupId>org.moxie</groupId>\n"
+				+ "<artifactId>" + artifactId + "</artifactId>\n<version>1.0</version>\n</project>\n");
+		SimpleDateFormat df = new SimpleDateFormat("yyyyMMddHHmm");
+		df.setTimeZone(TimeZone.getTimeZone("GMT"));
+		file.setLastModified(df.parse(date).getTime());
+	}
+
+	private List<String> search(LuceneExecutor lucene, String text) {
+		List<String> artifacts = new ArrayList<String>();
+		for (SearchResult result : lucene.search(text, 1, 0, "releases")) {
+			artifacts.add(result.artifactId);
+		}
+		return artifacts;
+	}
+
+	public void testDateQueries() throws Exception {
+		pom("january", "202401151200");
+		pom("february", "202402200000");
+		pom("march", "202403102359");
+
+		LuceneExecutor lucene = new LuceneExecutor(config, new ProxyMetrics());
+		try {
+			// the scan indexes each pom with createDocument
+			lucene.reindex("releases");
+
+			// all artifacts, newest first
+			assertEquals(Arrays.asList("march", "february", "january"), search(lucene, "*"));
+
+			// a day covers all of its minutes
+			assertEquals(Arrays.asList("february"), search(lucene, "date:20240220"));
+			assertEquals(Arrays.asList("march"), search(lucene, "date:20240310"));
+			assertEquals(Arrays.asList("january"), search(lucene, "date:202401151200"));
+			assertEquals(0, search(lucene, "date:20240115 AND date:20240116").size());
+
+			// inclusive and exclusive ranges
+			assertEquals(Arrays.asList("february", "january"), search(lucene, "date:[20240101 TO 20240220]"));
+			assertEquals(Arrays.asList("january"), search(lucene, "date:[20240101 TO 20240220}"));
+			assertEquals(Arrays.asList("march", "february"), search(lucene, "date:{20240115 TO 20241231]"));
+
+			// open ranges
+			assertEquals(Arrays.asList("january"), search(lucene, "date:[* TO 20240131]"));
+			assertEquals(Arrays.asList("march", "february"), search(lucene, "date:[20240201 TO *]"));
+		} finally {
+			lucene.close();
+		}
+	}
+
+	public void testMatchAll() throws Exception {
+		assertEquals("*:*", query("*"));
+		assertEquals("*:*", query("*:*"));
+	}
+
+	public void testTerms() throws Exception {
+		assertEquals("+(groupid_prefix:moxie artifactid_prefix:moxie) (artifactid_exact:moxie)^4.0 (groupid_exact:moxie)^2.0",
+				query("moxie"));
+		assertEquals("+(groupid_prefix:moxie artifactid_prefix:moxie) +(groupid_prefix:co artifactid_prefix:co)"
+				+ " (artifactid_exact:moxie-co)^4.0 (groupid_exact:moxie-co)^2.0", query("moxie-co"));
+		assertEquals("+(groupid_prefix:commons artifactid_prefix:commons) (artifactid_exact:commons)^4.0 (groupid_exact:commons)^2.0"
+				+ " +(groupid_prefix:lang artifactid_prefix:lang) (artifactid_exact:lang)^4.0 (groupid_exact:lang)^2.0",
+				query("commons lang"));
+	}
+
+	public void testSuffix() throws Exception {
+		assertEquals("+(groupid_suffix:nommoc* artifactid_suffix:nommoc*)", query("*common"));
+		assertEquals("+(groupid_suffix:eixom* artifactid_suffix:eixom*) +(groupid_prefix:co artifactid_prefix:co)",
+				query("*moxie-co"));
+	}
+
+	public void testCoordinates() throws Exception {
+		assertEquals("#groupid_exact:org.moxie #artifactid_exact:moxie-common", query("org.moxie:moxie-common"));
+		assertEquals("#groupid_exact:org.moxie #artifactid_exact:moxie-common #version_exact:0.9.4",
+				query("org.moxie:moxie-common:0.9.4"));
+		// the packaging and the classifier are ignored, the last segment is the version
+		assertEquals("#groupid_exact:org.moxie #artifactid_exact:moxie-common #version_exact:0.9.4",
+				query("org.moxie:moxie-common:jar:0.9.4"));
+		assertEquals("#groupid_exact:org.moxie #artifactid_exact:moxie-common #version_exact:0.9.4",
+				query("org.moxie:moxie-common:jar:sources:0.9.4"));
+	}
+
+	public void testCoordinateWildcards() throws Exception {
+		assertEquals("#artifactid_exact:moxie-common", query("*:moxie-common"));
+		assertEquals("#groupid_exact:org.moxie #version_exact:0.9.4", query("org.moxie::0.9.4"));
+		assertEquals("#groupid_exact:org.moxie #artifactid_exact:moxie-* #version_exact:0.?.4",
+				query("org.moxie:moxie-*:0.?.4"));
+		assertEquals("#groupid_exact:org.moxie #artifactid_exact:mo*xie", query("org.moxie:mo*xie"));
+	}
+
+	public void testTypeahead() throws Exception {
+		assertEquals("#groupid_exact:org.moxie #artifactid_exact:moxie-co*",
+				LuceneExecutor.createQuery("org.moxie:moxie-co", true).toString());
+		assertEquals("#groupid_exact:org.moxie #artifactid_exact:moxie-common #version_exact:0.9*",
+				LuceneExecutor.createQuery("org.moxie:moxie-common:0.9", true).toString());
+	}
+
+	public void testRelevanceSorted() throws Exception {
+		assertTrue(LuceneExecutor.isRelevanceSorted("commons lang"));
+		assertTrue(LuceneExecutor.isRelevanceSorted("*common"));
+		assertFalse(LuceneExecutor.isRelevanceSorted("*"));
+		assertFalse(LuceneExecutor.isRelevanceSorted("org.moxie:moxie-common"));
+		assertFalse(LuceneExecutor.isRelevanceSorted("groupid:org.moxie"));
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		folder = new File(System.getProperty("java.io.tmpdir"), "moxie-lucene-" + System.nanoTime());
+		folder.mkdirs();
+		File configFile = new File(folder, "proxy.moxie");
+		FileUtils.writeContent(configFile, "rootFolder: \"" + folder.getAbsolutePath().replace('\\', '/')
+				+ "\"\nlocalRepositories:\n- releases\n");
+		config = new ProxyConfig();
+		config.parse(configFile);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.delete(folder);
+		super.tearDown();
+	}
+}
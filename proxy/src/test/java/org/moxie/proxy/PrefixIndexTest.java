@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.moxie.Constants;
+import org.moxie.utils.FileUtils;
+
+public class PrefixIndexTest extends TestCase {
+
+	File folder;
+
+	ProxyConfig config;
+
+	public void testGetPrefix() throws Exception {
+		assertEquals("/junit", PrefixIndex.getPrefix("junit"));
+		assertEquals("/org/apache", PrefixIndex.getPrefix("org.apache"));
+		assertEquals("/org/apache", PrefixIndex.getPrefix("org.apache.commons"));
+	}
+
+	public void testIncrementalUpdates() throws Exception {
+		PrefixIndex index = new PrefixIndex(config);
+		assertFalse(index.exists("releases"));
+
+		index.add("releases", "org.apache.commons");
+		index.add("releases", "junit");
+		index.flush();
+		assertTrue(index.exists("releases"));
+		Set<String> prefixes = config.getMavenCache("releases").getPrefixes();
+		assertTrue(prefixes.contains("/org/apache"));
+		assertTrue(prefixes.contains("/junit"));
+		assertTrue(prefixes.contains("/.meta"));
+
+		// prefixes written by other tools are retained
+		File file = new File(config.getMavenCache("releases").getRootFolder(), Constants.PREFIXES);
+		FileUtils.writeContent(file, "/com/example\n");
+		index.add("releases", "org.moxie");
+		index.flush();
+		prefixes = config.getMavenCache("releases").getPrefixes();
+		assertTrue(prefixes.contains("/com/example"));
+		assertTrue(prefixes.contains("/org/moxie"));
+		assertTrue(prefixes.contains("/junit"));
+
+		// known prefixes do not rewrite the index
+		file.delete();
+		index.add("releases", "org.apache.maven");
+		index.flush();
+		assertFalse(file.exists());
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		folder = new File(System.getProperty("java.io.tmpdir"), "moxie-prefixes-" + System.nanoTime());
+		folder.mkdirs();
+		File configFile = new File(folder, "proxy.moxie");
+		FileUtils.writeContent(configFile, "rootFolder: \"" + folder.getAbsolutePath().replace('\\', '/')
+				+ "\"\nlocalRepositories:\n- releases\n");
+		config = new ProxyConfig();
+		config.parse(configFile);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.delete(folder);
+		super.tearDown();
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class ProxyMetricsTest extends TestCase {
+
+	public void testRequests() throws Exception {
+		ProxyMetrics metrics = new ProxyMetrics();
+		metrics.request("GET", 200, 100, TimeUnit.MILLISECONDS.toNanos(3));
+		metrics.request("GET", 404, 0, TimeUnit.MILLISECONDS.toNanos(20));
+		metrics.request("HEAD", 200, 0, TimeUnit.SECONDS.toNanos(90));
+		metrics.cache(ProxyMetrics.HIT);
+		metrics.cache(ProxyMetrics.MISS);
+		metrics.cache(ProxyMetrics.HIT);
+
+		String text = write(metrics);
+		assertTrue(text.contains("moxie_proxy_requests_total{method=\"GET\"} 2\n"));
+		assertTrue(text.contains("moxie_proxy_requests_total{method=\"HEAD\"} 1\n"));
+		assertTrue(text.contains("moxie_proxy_responses_total{status=\"404\"} 1\n"));
+		assertTrue(text.contains("moxie_proxy_cache_requests_total{result=\"hit\"} 2\n"));
+		assertTrue(text.contains("moxie_proxy_served_bytes_total 100\n"));
+
+		// buckets are cumulative
+		assertTrue(text.contains("moxie_proxy_request_duration_seconds_bucket{le=\"0.001\"} 0\n"));
+		assertTrue(text.contains("moxie_proxy_request_duration_seconds_bucket{le=\"0.005\"} 1\n"));
+		assertTrue(text.contains("moxie_proxy_request_duration_seconds_bucket{le=\"0.025\"} 2\n"));
+		assertTrue(text.contains("moxie_proxy_request_duration_seconds_bucket{le=\"60.0\"} 2\n"));
+		assertTrue(text.contains("moxie_proxy_request_duration_seconds_bucket{le=\"+Inf\"} 3\n"));
+		assertTrue(text.contains("moxie_proxy_request_duration_seconds_count 3\n"));
+	}
+
+	public void testDownloads() throws Exception {
+		ProxyMetrics metrics = new ProxyMetrics();
+		metrics.downloadStarted();
+		metrics.downloadStarted();
+		metrics.downloadFinished(ProxyMetrics.OK, 1024, TimeUnit.MILLISECONDS.toNanos(200));
+		metrics.registerIndexQueue(ProxyMetrics.ARTIFACTS, new ProxyMetrics.Gauge() {
+			@Override
+			public long getValue() {
+				return 7;
+			}
+		});
+		metrics.indexCommitted(ProxyMetrics.ARTIFACTS, TimeUnit.MILLISECONDS.toNanos(40));
+
+		String text = write(metrics);
+		assertTrue(text.contains("moxie_upstream_downloads_in_flight 1\n"));
+		assertTrue(text.contains("moxie_upstream_requests_total{result=\"ok\"} 1\n"));
+		assertTrue(text.contains("moxie_upstream_received_bytes_total 1024\n"));
+		assertTrue(text.contains("moxie_index_queue_depth{index=\"artifacts\"} 7\n"));
+		assertTrue(text.contains("moxie_index_commit_duration_seconds_bucket{index=\"artifacts\",le=\"0.05\"} 1\n"));
+		assertTrue(text.contains("moxie_index_commit_duration_seconds_count{index=\"artifacts\"} 1\n"));
+	}
+
+	private String write(ProxyMetrics metrics) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		metrics.write(sb);
+		return sb.toString();
+	}
+}
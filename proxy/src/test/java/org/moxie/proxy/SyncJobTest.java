@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.moxie.Dependency;
+import org.moxie.RemoteRepository;
+import org.moxie.proxy.SyncJob.Source;
+
+public class SyncJobTest extends TestCase {
+
+	private SyncJob job(Source source) {
+		RemoteRepository repository = new RemoteRepository("central", "https://repo1.maven.org/maven2", false);
+		return new SyncJob(1, new ProxyConfig(), new ProxyMetrics(), null, null, repository, source, "");
+	}
+
+	public void testCoordinates() throws Exception {
+		SyncJob job = job(Source.coordinates);
+		List<Dependency> list = job.parseCoordinates("# comment\n"
+				+ "org.moxie:moxie-common:0.9.4\n"
+				+ "\n"
+				+ "org.moxie:moxie-common:0.9.4\n"
+				+ "org.moxie:moxie-proxy:0.9.4:sources\n"
+				+ "org.moxie:moxie-site:0.9.4@zip\n"
+				+ "org.moxie:moxie-toolkit:[0.9,)\n", false);
+		assertEquals(3, list.size());
+		assertEquals("org.moxie:moxie-common:0.9.4::jar", list.get(0).getDetailedCoordinates());
+		assertEquals("org.moxie:moxie-proxy:0.9.4:sources:jar", list.get(1).getDetailedCoordinates());
+		assertEquals("org.moxie:moxie-site:0.9.4::zip", list.get(2).getDetailedCoordinates());
+		assertEquals(1, job.getFailed());
+		assertEquals(1, job.getErrors().size());
+	}
+
+	public void testLockfile() throws Exception {
+		SyncJob job = job(Source.lockfile);
+		List<Dependency> list = job.parseCoordinates("# This is a Gradle generated file for dependency locking.\n"
+				+ "com.beust:jcommander:1.17=compileClasspath,runtimeClasspath\n"
+				+ "junit:junit:4.12=testCompileClasspath\n"
+				+ "empty=annotationProcessor\n", true);
+		assertEquals(2, list.size());
+		assertEquals("com.beust:jcommander:1.17::jar", list.get(0).getDetailedCoordinates());
+		assertEquals("junit:junit:4.12::jar", list.get(1).getDetailedCoordinates());
+		assertEquals(0, job.getFailed());
+	}
+
+	public void testIllegalCoordinates() throws Exception {
+		assertTrue(SyncJob.isSafe(new Dependency("org.moxie:moxie-common:0.9.4")));
+		assertFalse(SyncJob.isSafe(new Dependency("org.moxie:..:0.9.4")));
+		assertFalse(SyncJob.isSafe(new Dependency("org.moxie:moxie-common:..")));
+		assertFalse(SyncJob.isSafe(new Dependency("..:moxie-common:0.9.4")));
+	}
+
+	public void testSafePath() throws Exception {
+		assertTrue(SyncJob.isSafePath("org/moxie/"));
+		assertTrue(SyncJob.isSafePath("org/moxie/maven-metadata.xml"));
+		assertFalse(SyncJob.isSafePath("org/../../etc/"));
+		assertFalse(SyncJob.isSafePath("org/./moxie"));
+		assertFalse(SyncJob.isSafePath("org//moxie"));
+		assertFalse(SyncJob.isSafePath("/"));
+		assertFalse(SyncJob.isSafePath("org\\moxie"));
+	}
+
+	public void testPrefixesUrl() throws Exception {
+		RemoteRepository repository = new RemoteRepository("central", "https://repo1.maven.org/maven2", false);
+		assertEquals("https://repo1.maven.org/maven2/.meta/prefixes.txt", SyncJob.getPrefixesUrl(repository, ""));
+		assertEquals("https://repo1.maven.org/maven2/org/prefixes.txt", SyncJob.getPrefixesUrl(repository, "/org/prefixes.txt"));
+		assertEquals("https://repo1.maven.org/maven2/.meta/prefixes.txt",
+				SyncJob.getPrefixesUrl(repository, "https://repo1.maven.org/maven2/.meta/prefixes.txt"));
+		assertNull(SyncJob.getPrefixesUrl(repository, "http://169.254.169.254/latest/meta-data"));
+		assertNull(SyncJob.getPrefixesUrl(repository, "https://repo1.maven.org/maven2-evil/prefixes.txt"));
+		assertNull(SyncJob.getPrefixesUrl(repository, "../../prefixes.txt"));
+		assertNull(SyncJob.getPrefixesUrl(repository, "file:/etc/passwd"));
+	}
+
+	public void testDescription() throws Exception {
+		assertEquals("https://repo1.maven.org/maven2/.meta/prefixes.txt", job(Source.prefixes).getDescription());
+		assertEquals("0 coordinates", job(Source.coordinates).getDescription());
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.security.MessageDigest;
+
+import junit.framework.TestCase;
+
+import org.moxie.utils.StringUtils;
+
+public class UploadFilterTest extends TestCase {
+
+	public void testPath() throws Exception {
+		assertEquals("org/x/x/1.0/x-1.0.jar", UploadFilter.getPath("/org/x/x/1.0/x-1.0.jar"));
+		assertEquals("org/x/x/maven-metadata.xml", UploadFilter.getPath("org/x/x/maven-metadata.xml"));
+		assertNull(UploadFilter.getPath(null));
+		assertNull(UploadFilter.getPath("/"));
+		assertNull(UploadFilter.getPath("org/x/x/"));
+		assertNull(UploadFilter.getPath("org/x/../../x.jar"));
+		assertNull(UploadFilter.getPath("org//x.jar"));
+		assertNull(UploadFilter.getPath(".meta/prefixes.txt"));
+		assertNull(UploadFilter.getPath("org\\x.jar"));
+	}
+
+	public void testImmutable() throws Exception {
+		assertTrue(UploadFilter.isImmutable(new File("org/x/x/1.0/x-1.0.jar")));
+		assertTrue(UploadFilter.isImmutable(new File("org/x/x/1.0/x-1.0.pom")));
+		assertFalse(UploadFilter.isImmutable(new File("org/x/x/1.0/x-1.0.jar.sha1")));
+		assertFalse(UploadFilter.isImmutable(new File("org/x/x/maven-metadata.xml")));
+		assertFalse(UploadFilter.isImmutable(new File("org/x/x/1.0-SNAPSHOT/x-1.0-20120101.120000-1.jar")));
+		assertFalse(UploadFilter.isImmutable(new File("org/x/x/1.0-SNAPSHOT/maven-metadata.xml")));
+	}
+
+	public void testHex() throws Exception {
+		byte [] bytes = "moxie".getBytes("UTF-8");
+		assertEquals(StringUtils.getSHA1(bytes), UploadFilter.toHex(MessageDigest.getInstance("SHA-1").digest(bytes)));
+		assertEquals(StringUtils.getMD5(bytes), UploadFilter.toHex(MessageDigest.getInstance("MD5").digest(bytes)));
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.connection;
+
+import java.io.ByteArrayInputStream;
+
+import junit.framework.TestCase;
+
+import org.moxie.proxy.connection.HttpRequestParser.HttpMethod;
+
+public class HttpRequestParserTest extends TestCase {
+
+	private HttpRequestParser parser(String requests, int bufferSize) throws Exception {
+		return new HttpRequestParser(new ByteArrayInputStream(requests.getBytes("ISO-8859-1")), bufferSize);
+	}
+
+	public void testHttp11IsPersistent() throws Exception {
+		HttpRequestParser parser = parser("GET http://a/b/c.pom HTTP/1.1\r\nHost: a\r\n\r\n", 1024);
+		assertTrue(parser.next());
+		assertEquals(HttpMethod.GET, parser.getMethod());
+		assertEquals("http://a/b/c.pom", parser.getUri());
+		assertTrue(parser.isKeepAlive());
+		assertFalse(parser.next());
+	}
+
+	public void testHttp11Close() throws Exception {
+		HttpRequestParser parser = parser("HEAD http://a/b HTTP/1.1\r\nConnection: close\r\n\r\n", 1024);
+		assertTrue(parser.next());
+		assertEquals(HttpMethod.HEAD, parser.getMethod());
+		assertFalse(parser.isKeepAlive());
+	}
+
+	public void testHttp10KeepAlive() throws Exception {
+		HttpRequestParser parser = parser("GET http://a/b HTTP/1.0\r\n\r\n"
+				+ "GET http://a/c HTTP/1.0\r\nProxy-Connection: Keep-Alive\r\n\r\n", 1024);
+		assertTrue(parser.next());
+		assertFalse(parser.isKeepAlive());
+		assertTrue(parser.next());
+		assertEquals("http://a/c", parser.getUri());
+		assertTrue(parser.isKeepAlive());
+	}
+
+	public void testPipelinedRequests() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			sb.append("GET http://repo/org/x/").append(i).append(".jar HTTP/1.1\r\n");
+			sb.append("User-Agent: Apache-Maven/3.0.4\r\n");
+			sb.append("Accept: */*\r\n\r\n");
+		}
+		// small buffer forces compaction across request boundaries
+		HttpRequestParser parser = parser(sb.toString(), 64);
+		for (int i = 0; i < 50; i++) {
+			assertTrue(parser.next());
+			assertEquals("http://repo/org/x/" + i + ".jar", parser.getUri());
+		}
+		assertFalse(parser.next());
+	}
+
+	public void testUnsupportedMethod() throws Exception {
+		HttpRequestParser parser = parser("PUT http://a/b HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello"
+				+ "GET http://a/c HTTP/1.1\n\n", 1024);
+		assertTrue(parser.next());
+		assertNull(parser.getMethod());
+		assertEquals("PUT", parser.getMethodName());
+		assertTrue(parser.next());
+		assertEquals(HttpMethod.GET, parser.getMethod());
+		assertEquals("http://a/c", parser.getUri());
+	}
+
+	public void testAcceptEncoding() throws Exception {
+		HttpRequestParser parser = parser("GET http://a/b HTTP/1.1\r\nAccept-Encoding: gzip,deflate\r\n\r\n"
+				+ "GET http://a/c HTTP/1.1\r\n\r\n", 1024);
+		assertTrue(parser.next());
+		assertTrue(parser.isGzipAccepted());
+		assertTrue(parser.next());
+		assertFalse(parser.isGzipAccepted());
+
+		assertTrue(HttpRequestParser.acceptsGzip("deflate, gzip;q=0.5"));
+		assertTrue(HttpRequestParser.acceptsGzip("*"));
+		assertFalse(HttpRequestParser.acceptsGzip("identity"));
+		assertFalse(HttpRequestParser.acceptsGzip("gzip;q=0"));
+		assertFalse(HttpRequestParser.acceptsGzip("*, gzip;q=0.0"));
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+import org.moxie.proxy.ProxyConfig;
+import org.moxie.proxy.ProxyMetrics;
+
+public class ProxyRequestHandlerTest extends TestCase {
+
+	/**
+	 * Sends pipelined requests on one connection and returns everything the
+	 * handler wrote until it closed the connection.
+	 */
+	private String converse(String requests) throws Exception {
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		try {
+			Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			Socket socket = server.accept();
+			ProxyRequestHandler handler = new ProxyRequestHandler(new ProxyConfig(), null, new ProxyMetrics(), null,
+					null, null, null, null, socket);
+			Thread thread = new Thread(handler);
+			thread.start();
+			OutputStream os = client.getOutputStream();
+			os.write(requests.getBytes("ISO-8859-1"));
+			os.flush();
+			InputStream is = client.getInputStream();
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			byte [] buffer = new byte[1024];
+			int len;
+			while ((len = is.read(buffer)) > -1) {
+				response.write(buffer, 0, len);
+			}
+			client.close();
+			thread.join(5000);
+			return response.toString("ISO-8859-1");
+		} finally {
+			server.close();
+		}
+	}
+
+	private int count(String text, String token) {
+		int count = 0;
+		for (int i = text.indexOf(token); i > -1; i = text.indexOf(token, i + token.length())) {
+			count++;
+		}
+		return count;
+	}
+
+	public void testErrorsKeepTheConnectionAlive() throws Exception {
+		String response = converse("GET http://unknown.example/org/x/x/1.0/x-1.0.pom HTTP/1.1\r\nHost: unknown.example\r\n\r\n"
+				+ "GET ftp://unknown.example/x.pom HTTP/1.1\r\nHost: unknown.example\r\n\r\n"
+				+ "GET not-a-url HTTP/1.1\r\nHost: unknown.example\r\n\r\n"
+				+ "GET http://unknown.example/x.pom HTTP/1.1\r\nHost: unknown.example\r\nConnection: close\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 403 Forbidden\r\n"));
+		assertEquals(response, 2, count(response, "HTTP/1.1 403 Forbidden\r\n"));
+		assertEquals(response, 2, count(response, "HTTP/1.1 400 Bad Request\r\n"));
+		assertEquals(response, 4, count(response, "Content-length: 0\r\n"));
+		assertEquals(response, 3, count(response, "Connection: keep-alive\r\n"));
+		assertTrue(response, response.endsWith("Connection: close\r\n\r\n"));
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.moxie.utils.StringUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process Maven 2 repository which serves generated artifacts with a
+ * configurable latency. It counts the requests it receives so that the load
+ * test can report how many requests the proxy forwarded upstream.
+ * <p>
+ * The repository contains one release of a number of artifacts in the
+ * org.moxie.load group, each with a pom, a jar, the artifact metadata and
+ * the SHA-1 and MD5 checksums of these files. Conditional requests are
+ * answered with 304 Not Modified since the generated content never changes.
+ *
+ * @author James Moger
+ *
+ */
+public class FakeUpstream implements HttpHandler {
+
+	public static final String GROUP = "org.moxie.load";
+
+	public static final String VERSION = "1.0";
+
+	public static final String CONTEXT = "/maven2";
+
+	private final Map<String, byte []> content;
+
+	private final ConcurrentMap<String, AtomicLong> fetches;
+
+	private final AtomicLong notModified;
+
+	private final AtomicLong notFound;
+
+	private final SimpleDateFormat dateFormat;
+
+	private final long lastModified;
+
+	private final int latency;
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	/**
+	 * @param artifacts
+	 *            the number of artifacts to generate
+	 * @param jarSize
+	 *            the approximate size of each jar in bytes
+	 * @param latency
+	 *            the delay of each response in milliseconds
+	 */
+	public FakeUpstream(int artifacts, int jarSize, int latency) throws IOException {
+		this.content = new ConcurrentHashMap<String, byte []>();
+		this.fetches = new ConcurrentHashMap<String, AtomicLong>();
+		this.notModified = new AtomicLong();
+		this.notFound = new AtomicLong();
+		this.latency = latency;
+
+		this.dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+		this.dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+		this.lastModified = System.currentTimeMillis() / 1000 * 1000;
+
+		Random random = new Random(artifacts);
+		for (int i = 0; i < artifacts; i++) {
+			String artifactId = getArtifactId(i);
+			String folder = getFolder(i);
+			put(folder + "/" + artifactId + "-" + VERSION + ".pom", pom(artifactId));
+			put(folder + "/" + artifactId + "-" + VERSION + ".jar", jar(artifactId, jarSize, random));
+			put(folder.substring(0, folder.lastIndexOf('/')) + "/maven-metadata.xml", metadata(artifactId));
+		}
+	}
+
+	public static String getArtifactId(int index) {
+		return "artifact-" + index;
+	}
+
+	/**
+	 * Returns the version folder of an artifact, relative to the repository
+	 * root.
+	 */
+	public static String getFolder(int index) {
+		return GROUP.replace('.', '/') + "/" + getArtifactId(index) + "/" + VERSION;
+	}
+
+	public void start(int port) throws IOException {
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+		server.createContext(CONTEXT, this);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the url of the repository.
+	 */
+	public String getUrl() {
+		return MessageFormat.format("http://127.0.0.1:{0,number,0}{1}", server.getAddress().getPort(), CONTEXT);
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (latency > 0) {
+				Thread.sleep(latency);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		String path = exchange.getRequestURI().getPath();
+		byte [] bytes = path.length() > CONTEXT.length() ? content.get(path.substring(CONTEXT.length() + 1)) : null;
+		try {
+			if (bytes == null) {
+				notFound.incrementAndGet();
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			count(path);
+			exchange.getResponseHeaders().set("Last-Modified", formatDate(lastModified));
+			if (isNotModified(exchange.getRequestHeaders().getFirst("If-Modified-Since"))) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			boolean head = "HEAD".equals(exchange.getRequestMethod());
+			exchange.sendResponseHeaders(200, head ? -1 : bytes.length);
+			if (!head) {
+				OutputStream os = exchange.getResponseBody();
+				os.write(bytes);
+				os.close();
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private boolean isNotModified(String ifModifiedSince) {
+		if (ifModifiedSince == null) {
+			return false;
+		}
+		try {
+			synchronized (dateFormat) {
+				return dateFormat.parse(ifModifiedSince).getTime() >= lastModified;
+			}
+		} catch (ParseException e) {
+			return false;
+		}
+	}
+
+	private String formatDate(long time) {
+		synchronized (dateFormat) {
+			return dateFormat.format(new Date(time));
+		}
+	}
+
+	/**
+	 * Returns the number of served requests, per kind of file.
+	 */
+	public Map<String, Long> getFetches() {
+		Map<String, Long> map = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : fetches.entrySet()) {
+			map.put(entry.getKey(), entry.getValue().get());
+		}
+		return map;
+	}
+
+	public long getTotalFetches() {
+		long total = 0;
+		for (AtomicLong count : fetches.values()) {
+			total += count.get();
+		}
+		return total;
+	}
+
+	public long getNotModified() {
+		return notModified.get();
+	}
+
+	public long getNotFound() {
+		return notFound.get();
+	}
+
+	public void reset() {
+		fetches.clear();
+		notModified.set(0);
+		notFound.set(0);
+	}
+
+	private void count(String path) {
+		String kind;
+		if (path.endsWith(".sha1") || path.endsWith(".md5")) {
+			kind = "checksum";
+		} else if (path.endsWith("maven-metadata.xml")) {
+			kind = "metadata";
+		} else {
+			kind = path.substring(path.lastIndexOf('.') + 1);
+		}
+		AtomicLong count = fetches.get(kind);
+		if (count == null) {
+			AtomicLong c = new AtomicLong();
+			count = fetches.putIfAbsent(kind, c);
+			if (count == null) {
+				count = c;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	private void put(String path, byte [] bytes) {
+		content.put(path, bytes);
+		content.put(path + ".sha1", StringUtils.getSHA1(bytes).getBytes());
+		content.put(path + ".md5", StringUtils.getMD5(bytes).getBytes());
+	}
+
+	private byte [] pom(String artifactId) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+		sb.append("\t<modelVersion>4.0.0</modelVersion>\n");
+		sb.append("\t<groupId>").append(GROUP).append("</groupId>\n");
+		sb.append("\t<artifactId>").append(artifactId).append("</artifactId>\n");
+		sb.append("\t<version>").append(VERSION).append("</version>\n");
+		sb.append("\t<packaging>jar</packaging>\n");
+		sb.append("\t<name>").append(artifactId).append("</name>\n");
+		sb.append("\t<description>Generated artifact for load testing</description>\n");
+		sb.append("</project>\n");
+		return sb.toString().getBytes("UTF-8");
+	}
+
+	private byte [] metadata(String artifactId) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<metadata>\n");
+		sb.append("\t<groupId>").append(GROUP).append("</groupId>\n");
+		sb.append("\t<artifactId>").append(artifactId).append("</artifactId>\n");
+		sb.append("\t<versioning>\n");
+		sb.append("\t\t<latest>").append(VERSION).append("</latest>\n");
+		sb.append("\t\t<release>").append(VERSION).append("</release>\n");
+		sb.append("\t\t<versions>\n");
+		sb.append("\t\t\t<version>").append(VERSION).append("</version>\n");
+		sb.append("\t\t</versions>\n");
+		sb.append("\t\t<lastUpdated>20120101000000</lastUpdated>\n");
+		sb.append("\t</versioning>\n");
+		sb.append("</metadata>\n");
+		return sb.toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * Generates a jar with one class-like entry of random, incompressible,
+	 * content so that the jar has roughly the requested size.
+	 */
+	private byte [] jar(String artifactId, int size, Random random) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream(size + 1024);
+		JarOutputStream jar = new JarOutputStream(os);
+		String pkg = GROUP.replace('.', '/') + "/" + artifactId.replace('-', '_');
+		jar.putNextEntry(new ZipEntry(pkg + "/Generated.class"));
+		byte [] bytes = new byte[size];
+		random.nextBytes(bytes);
+		jar.write(bytes);
+		jar.closeEntry();
+		jar.close();
+		return os.toByteArray();
+	}
+}
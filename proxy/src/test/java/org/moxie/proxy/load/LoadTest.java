@@ -0,0 +1,361 @@
+/*
+ * Copyright 2012 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.load;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.moxie.proxy.Launcher;
+import org.moxie.proxy.ProxyConfig;
+import org.moxie.utils.FileUtils;
+import org.restlet.Component;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Load test of the proxy connector.
+ * <p>
+ * Starts a {@link FakeUpstream} repository and a Moxie Proxy, with an empty
+ * root folder, which proxies it. A number of concurrent clients then resolve
+ * randomly chosen artifacts through the proxy port the way Maven does: the
+ * metadata, the pom and the jar, each followed by its SHA-1 checksum. The
+ * workload is repeated for a number of passes; the first pass runs against
+ * a cold cache. The throughput, the latency percentiles and the requests
+ * which reached the upstream repository are reported per pass so that
+ * changes to the request engine can be compared.
+ * <p>
+ * e.g. gradle :proxy:loadTest -PloadArgs="--clients 32 --latency 50"
+ *
+ * @author James Moger
+ *
+ */
+public class LoadTest {
+
+	private final Params params;
+
+	private final PrintStream out;
+
+	public LoadTest(Params params, PrintStream out) {
+		this.params = params;
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Params params = new Params();
+		JCommander jc = new JCommander(params);
+		try {
+			jc.parse(args);
+		} catch (Exception e) {
+			e.printStackTrace();
+			jc.usage();
+			System.exit(-1);
+		}
+		new LoadTest(params, System.out).run();
+		System.exit(0);
+	}
+
+	public void run() throws Exception {
+		if (!params.verbose) {
+			for (Handler handler : Logger.getLogger("").getHandlers()) {
+				handler.setLevel(Level.WARNING);
+			}
+		}
+
+		File root = params.root;
+		if (root == null) {
+			root = new File(System.getProperty("java.io.tmpdir"), "moxie-loadtest-" + System.currentTimeMillis());
+		}
+		FileUtils.delete(root);
+		root.mkdirs();
+
+		FakeUpstream upstream = new FakeUpstream(params.artifacts, params.jarSize, params.latency);
+		upstream.start(0);
+
+		int httpPort = getFreePort();
+		int proxyPort = getFreePort();
+		ProxyConfig config = new ProxyConfig();
+		config.parse(writeConfig(root, upstream.getUrl(), httpPort, proxyPort));
+		Component component = Launcher.start(config);
+
+		out.println(MessageFormat.format("upstream {0}, {1} artifacts, {2} ms latency", upstream.getUrl(),
+				params.artifacts, params.latency));
+		out.println(MessageFormat.format("proxy port {0,number,0}, {1} clients, {2} resolutions per client",
+				proxyPort, params.clients, params.resolutions));
+		try {
+			for (int pass = 1; pass <= params.passes; pass++) {
+				upstream.reset();
+				Result result = pass(proxyPort, upstream, pass);
+				report(pass == 1 ? "pass 1 (cold)" : ("pass " + pass), result, upstream);
+			}
+		} finally {
+			component.stop();
+			upstream.stop();
+			if (params.root == null) {
+				FileUtils.delete(root);
+			}
+		}
+	}
+
+	/**
+	 * Drives one pass of the workload.
+	 */
+	Result pass(int proxyPort, FakeUpstream upstream, int pass) throws Exception {
+		final Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", proxyPort));
+		final String url = upstream.getUrl();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(params.clients);
+		final Result result = new Result();
+
+		List<Client> clients = new ArrayList<Client>();
+		for (int i = 0; i < params.clients; i++) {
+			Client client = new Client(proxy, url, new Random(pass * 1000 + i), start, done, result);
+			client.setName("load client " + i);
+			client.setDaemon(true);
+			client.start();
+			clients.add(client);
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		result.nanos = System.nanoTime() - begin;
+
+		int count = 0;
+		for (Client client : clients) {
+			count += client.count;
+		}
+		result.latencies = new long[count];
+		int offset = 0;
+		for (Client client : clients) {
+			System.arraycopy(client.latencies, 0, result.latencies, offset, client.count);
+			offset += client.count;
+		}
+		Arrays.sort(result.latencies);
+		return result;
+	}
+
+	void report(String name, Result result, FakeUpstream upstream) {
+		long requests = result.latencies.length;
+		double seconds = result.nanos / 1000000000d;
+		out.println();
+		out.println(name);
+		out.println(MessageFormat.format("  requests     {0} in {1,number,0.000} s, {2} errors", requests, seconds,
+				result.errors.get()));
+		out.println(MessageFormat.format("  throughput   {0,number,0.0} req/s, {1,number,0.00} MB/s", requests / seconds,
+				result.bytes.get() / seconds / (1024 * 1024)));
+		out.println(MessageFormat.format("  latency ms   p50 {0,number,0.00}  p90 {1,number,0.00}  p99 {2,number,0.00}  p99.9 {3,number,0.00}  max {4,number,0.00}",
+				percentile(result.latencies, 0.5), percentile(result.latencies, 0.9), percentile(result.latencies, 0.99),
+				percentile(result.latencies, 0.999), percentile(result.latencies, 1)));
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> entry : upstream.getFetches().entrySet()) {
+			sb.append("  ").append(entry.getKey()).append(' ').append(entry.getValue());
+		}
+		out.println(MessageFormat.format("  upstream     {0} requests ({1} not modified, {2} not found){3}",
+				upstream.getTotalFetches(), upstream.getNotModified(), upstream.getNotFound(), sb));
+	}
+
+	/**
+	 * Returns a percentile of the sorted latencies in milliseconds.
+	 */
+	static double percentile(long [] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		index = Math.max(0, Math.min(sorted.length - 1, index));
+		return sorted[index] / 1000000d;
+	}
+
+	private File writeConfig(File root, String url, int httpPort, int proxyPort) throws IOException {
+		File file = new File(root, "proxy.moxie");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write("httpPort: " + httpPort + "\n");
+			writer.write("httpsPort: 0\n");
+			writer.write("proxyPort: " + proxyPort + "\n");
+			writer.write("shutdownPort: 0\n");
+			writer.write("rootFolder: \"" + new File(root, "moxie").getAbsolutePath().replace('\\', '/') + "\"\n");
+			writer.write("accessLog: false\n");
+			writer.write("prefetchDepth: 0\n");
+			writer.write("metadataMaxAge: " + params.metadataMaxAge + "\n");
+			writer.write("localRepositories:\n- releases\n");
+			writer.write("remoteRepositories:\n- { id: 'upstream', url: \"" + url + "\" }\n");
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private static int getFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * The measurements of a pass.
+	 */
+	static class Result {
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		long nanos;
+		long [] latencies;
+	}
+
+	/**
+	 * A Maven-like client which resolves artifacts through the proxy.
+	 */
+	private class Client extends Thread {
+
+		final Proxy proxy;
+		final String url;
+		final Random random;
+		final CountDownLatch start;
+		final CountDownLatch done;
+		final Result result;
+		final long [] latencies;
+		final byte [] buffer;
+		int count;
+
+		Client(Proxy proxy, String url, Random random, CountDownLatch start, CountDownLatch done, Result result) {
+			this.proxy = proxy;
+			this.url = url;
+			this.random = random;
+			this.start = start;
+			this.done = done;
+			this.result = result;
+			this.latencies = new long[params.resolutions * 5];
+			this.buffer = new byte[32767];
+		}
+
+		@Override
+		public void run() {
+			try {
+				start.await();
+				for (int i = 0; i < params.resolutions; i++) {
+					int index = random.nextInt(params.artifacts);
+					String artifactId = FakeUpstream.getArtifactId(index);
+					String folder = url + "/" + FakeUpstream.getFolder(index);
+					String file = folder + "/" + artifactId + "-" + FakeUpstream.VERSION;
+					get(folder.substring(0, folder.lastIndexOf('/')) + "/maven-metadata.xml");
+					get(file + ".pom");
+					get(file + ".pom.sha1");
+					get(file + ".jar");
+					get(file + ".jar.sha1");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				done.countDown();
+			}
+		}
+
+		private void get(String artifact) {
+			long begin = System.nanoTime();
+			try {
+				HttpURLConnection conn = (HttpURLConnection) new URL(artifact).openConnection(proxy);
+				conn.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(10));
+				conn.setReadTimeout((int) TimeUnit.SECONDS.toMillis(60));
+				if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+					result.errors.incrementAndGet();
+					InputStream es = conn.getErrorStream();
+					if (es != null) {
+						drain(es);
+					}
+				} else {
+					result.bytes.addAndGet(drain(conn.getInputStream()));
+				}
+			} catch (IOException e) {
+				result.errors.incrementAndGet();
+			}
+			latencies[count++] = System.nanoTime() - begin;
+		}
+
+		/**
+		 * Reads and closes the stream so that the connection is reused.
+		 */
+		private long drain(InputStream is) throws IOException {
+			long total = 0;
+			try {
+				int len;
+				while ((len = is.read(buffer)) > -1) {
+					total += len;
+				}
+			} finally {
+				is.close();
+			}
+			return total;
+		}
+	}
+
+	@Parameters(separators = " ")
+	public static class Params {
+
+		@Parameter(names = { "--clients" }, description = "number of concurrent clients", required = false)
+		public int clients = 16;
+
+		@Parameter(names = { "--resolutions" }, description = "artifact resolutions per client and pass, 5 requests each", required = false)
+		public int resolutions = 100;
+
+		@Parameter(names = { "--artifacts" }, description = "number of artifacts in the upstream repository", required = false)
+		public int artifacts = 200;
+
+		@Parameter(names = { "--jarSize" }, description = "size of the upstream jars in bytes", required = false)
+		public int jarSize = 64 * 1024;
+
+		@Parameter(names = { "--latency" }, description = "upstream response latency in milliseconds", required = false)
+		public int latency = 20;
+
+		@Parameter(names = { "--passes" }, description = "number of passes, the first runs against a cold cache", required = false)
+		public int passes = 2;
+
+		@Parameter(names = { "--metadataMaxAge" }, description = "seconds that proxied metadata is considered fresh", required = false)
+		public int metadataMaxAge = 300;
+
+		@Parameter(names = { "--root" }, description = "folder for the proxy, deleted at start (default: a temporary folder)", required = false)
+		public File root;
+
+		@Parameter(names = { "--verbose" }, description = "log the proxy at INFO level", required = false)
+		public boolean verbose;
+	}
+}